@@ -0,0 +1,93 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures exporting a chain to a ChainArchive and importing it back, by
+ * worker count. Import re-hashes every block, so with enough workers it
+ * should run at the speed of the linker rather than of one hashing thread.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ArchiveBenchmark {
+
+    @Param({"1000000"})
+    private int size;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    private BlockChain chain;
+    private ChainArchive archive;
+    private Path file;
+
+    /**
+     * Mines a chain at difficulty 0 and exports it once.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IOException if the archive cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchAlgorithmException, IOException {
+        chain = new BlockChain(size, 0, HashEngine.SHA256, new ColumnarBlockStore());
+        for (int i = 1; i < size; i++) {
+            chain.append(chain.mine(-1));
+        }
+        archive = new ChainArchive(workers, HashEngine.SHA256);
+        file = Files.createTempFile("chain", ".bin");
+        archive.export(chain, file);
+    }
+
+    /**
+     * Deletes the archive.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Writes the whole chain.
+     *
+     * @throws IOException if the archive cannot be written
+     */
+    @Benchmark
+    public void export() throws IOException {
+        archive.export(chain, file);
+    }
+
+    /**
+     * Reads, verifies and links the whole chain.
+     *
+     * @return the imported chain
+     * @throws IOException if the archive cannot be read
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public BlockChain importChain() throws IOException, NoSuchAlgorithmException {
+        return archive.importChain(file, 0, new ColumnarBlockStore());
+    }
+}
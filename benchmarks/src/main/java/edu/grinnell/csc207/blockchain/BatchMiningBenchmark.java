@@ -0,0 +1,66 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mining one block that carries a batch of transactions. The proof
+ * of work costs the same for any batch size, so dividing the score by the
+ * batch size gives the cost of each transfer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class BatchMiningBenchmark {
+
+    @Param({"1", "16", "256"})
+    private int batch;
+
+    @Param({"16"})
+    private int difficulty;
+
+    private int[] transactions;
+    private Hash prevHash;
+    private int num;
+
+    /**
+     * Builds the batch and a previous hash to mine on.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        Random random = new Random(42);
+        transactions = new int[batch];
+        for (int i = 0; i < batch; i++) {
+            transactions[i] = random.nextInt(201) - 100;
+        }
+        prevHash = new Block(0, 100, null, HashEngine.SHA256, 8).getHash();
+    }
+
+    /**
+     * Mines one batch block on the calling thread, Merkle root included.
+     *
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public Block mineBatch() throws NoSuchAlgorithmException {
+        return new Block(++num, transactions, prevHash, HashEngine.SHA256, difficulty);
+    }
+}
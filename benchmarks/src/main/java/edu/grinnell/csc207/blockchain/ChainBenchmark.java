@@ -0,0 +1,253 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the chain operations at sizes from a thousand to ten million
+ * blocks. Chains are mined at difficulty zero so building them costs one hash
+ * per block; the ten million block chain needs a few gigabytes of heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChainBenchmark {
+
+    private static final int SAMPLES = 1 << 10;
+
+    /**
+     * A chain of the given size plus one spare block mined on its tip.
+     */
+    @State(Scope.Benchmark)
+    public static class ChainState {
+
+        @Param({"1000", "100000", "1000000", "10000000"})
+        private int size;
+
+        @Param({"chunked", "columnar", "columnar-direct"})
+        private String store;
+
+        private BlockChain chain;
+        private ChainVerifier verifier;
+        private Block spare;
+        private Hash[] samples;
+        private int nextSample;
+        private boolean extended;
+        private PrintStream stdout;
+
+        /**
+         * Builds the chain, alternating transfers so balances stay valid.
+         *
+         * @throws NoSuchAlgorithmException if SHA-256 is not available
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws NoSuchAlgorithmException {
+            chain = new BlockChain(size, 0, HashEngine.JCA, storeNamed(store));
+            for (int i = 1; i < size; i++) {
+                chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+            }
+            spare = chain.mine(-1);
+            Random random = new Random(size);
+            samples = new Hash[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                samples[i] = chain.getBlock(random.nextInt(size)).getHash();
+            }
+            verifier = new ChainVerifier(Runtime.getRuntime().availableProcessors());
+
+            stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        /**
+         * Restores standard output after printBalances runs and stops the
+         * verifier's workers.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.setOut(stdout);
+            verifier.close();
+        }
+    }
+
+    /**
+     * Returns a new, empty block store of the named kind.
+     *
+     * @param name chunked, columnar or columnar-direct
+     * @return the block store
+     */
+    static BlockStore storeNamed(String name) {
+        return switch (name) {
+            case "chunked" -> new ChunkedBlockStore();
+            case "columnar" -> new ColumnarBlockStore(false);
+            case "columnar-direct" -> new ColumnarBlockStore(true);
+            default -> throw new IllegalArgumentException("Unknown store: " + name);
+        };
+    }
+
+    /**
+     * Puts the chain back at its base size before each append.
+     */
+    @State(Scope.Thread)
+    public static class AppendState {
+
+        /**
+         * Removes the spare block if the previous invocation appended it.
+         *
+         * @param state the chain under test
+         */
+        @Setup(Level.Invocation)
+        public void prepare(ChainState state) {
+            if (state.extended) {
+                state.chain.removeLast();
+                state.extended = false;
+            }
+        }
+    }
+
+    /**
+     * Puts the spare block on the chain before each removeLast.
+     */
+    @State(Scope.Thread)
+    public static class RemoveState {
+
+        /**
+         * Appends the spare block if the previous invocation removed it.
+         *
+         * @param state the chain under test
+         */
+        @Setup(Level.Invocation)
+        public void prepare(ChainState state) {
+            if (!state.extended) {
+                state.chain.append(state.spare);
+                state.extended = true;
+            }
+        }
+    }
+
+    /**
+     * Appends a mined block onto the tip.
+     *
+     * @param state the chain under test
+     * @param append resets the chain between invocations
+     */
+    @Benchmark
+    public void append(ChainState state, AppendState append) {
+        state.chain.append(state.spare);
+        state.extended = true;
+    }
+
+    /**
+     * Removes the block at the tip.
+     *
+     * @param state the chain under test
+     * @param remove refills the chain between invocations
+     * @return true
+     */
+    @Benchmark
+    public boolean removeLast(ChainState state, RemoveState remove) {
+        state.extended = false;
+        return state.chain.removeLast();
+    }
+
+    /**
+     * Checks the whole chain, ignoring what earlier checks validated.
+     *
+     * @param state the chain under test
+     * @return true
+     */
+    @Benchmark
+    public boolean isValidBlockChain(ChainState state) {
+        return state.chain.isValidBlockChain(true);
+    }
+
+    /**
+     * Checks only the blocks appended since the last check, here the spare.
+     *
+     * @param state the chain under test
+     * @param append the state that resets the chain before each call
+     * @return true
+     */
+    @Benchmark
+    public boolean isValidBlockChainIncremental(ChainState state, AppendState append) {
+        state.chain.append(state.spare);
+        state.extended = true;
+        return state.chain.isValidBlockChain();
+    }
+
+    /**
+     * Looks up a block by its hash, cycling through hashes of random blocks.
+     *
+     * @param state the chain under test
+     * @return the index of the block
+     */
+    @Benchmark
+    public int indexOf(ChainState state) {
+        Hash hash = state.samples[state.nextSample++ & (SAMPLES - 1)];
+        return state.chain.indexOf(hash);
+    }
+
+    /**
+     * Re-hashes every block on all available processors.
+     *
+     * @param state the chain under test
+     * @return ChainVerifier.VALID
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public int findFirstInvalid(ChainState state) throws NoSuchAlgorithmException {
+        return state.verifier.findFirstInvalid(state.chain);
+    }
+
+    /**
+     * Computes and prints the balances to a discarding stream.
+     *
+     * @param state the chain under test
+     */
+    @Benchmark
+    public void printBalances(ChainState state) {
+        state.chain.printBalances();
+    }
+
+    /**
+     * Streams the last thousand blocks to a discarding writer, as the driver
+     * does with --tail.
+     *
+     * @param state the chain under test
+     * @throws IOException never, since the writer discards everything
+     */
+    @Benchmark
+    public void renderTail(ChainState state) throws IOException {
+        new ChainRenderer(Writer.nullWriter()).renderTail(state.chain, 1000);
+    }
+
+    /**
+     * Streams the whole chain to a discarding writer.
+     *
+     * @param state the chain under test
+     * @throws IOException never, since the writer discards everything
+     */
+    @Benchmark
+    public void renderAll(ChainState state) throws IOException {
+        new ChainRenderer(Writer.nullWriter()).render(state.chain, 0, state.chain.getSize());
+    }
+}
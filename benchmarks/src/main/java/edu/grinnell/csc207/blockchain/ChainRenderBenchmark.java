@@ -0,0 +1,57 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rendering a whole chain with toString. The largest size stops at
+ * one million blocks because ten million rendered blocks exceed the maximum
+ * length of a String.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class ChainRenderBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private BlockChain chain;
+
+    /**
+     * Builds the chain at difficulty zero.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        chain = new BlockChain(size, 0);
+        for (int i = 1; i < size; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+    }
+
+    /**
+     * Renders every block into one String.
+     *
+     * @return the rendered chain
+     */
+    @Benchmark
+    public String chainToString() {
+        return chain.toString();
+    }
+}
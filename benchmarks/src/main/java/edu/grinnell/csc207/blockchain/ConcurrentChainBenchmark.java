@@ -0,0 +1,66 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures miners racing to extend one ConcurrentBlockChain, and readers
+ * taking snapshots while they do. Run with -t to choose the number of
+ * threads; the appended rate should grow with the threads up to the number
+ * of cores, since mining shares nothing and appending is one CAS.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class ConcurrentChainBenchmark {
+
+    @Param({"12"})
+    private int difficulty;
+
+    private ConcurrentBlockChain chain;
+
+    /**
+     * Starts a chain whose balance cannot run out during the run.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        chain = new ConcurrentBlockChain(Integer.MAX_VALUE, difficulty, HashEngine.SHA256);
+    }
+
+    /**
+     * Mines a block on the current last block and tries to append it.
+     *
+     * @return true if this thread's block won
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public boolean mineAndAppend() throws NoSuchAlgorithmException {
+        return chain.append(chain.mine(-(int) Thread.currentThread().getId()));
+    }
+
+    /**
+     * Reads the size, hash, balance and validity of the chain.
+     *
+     * @return Alice's balance
+     */
+    @Benchmark
+    public int readSnapshot() {
+        return chain.isValidBlockChain() ? chain.getAliceBalance() : chain.getSize();
+    }
+}
@@ -0,0 +1,104 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Hash value operations used when printing and linking blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HashBenchmark {
+
+    private Hash hash;
+    private Hash same;
+    private Hash other;
+
+    /**
+     * Mines a real hash and makes an equal copy and a different one.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        hash = new Block(0, 100, null, HashEngine.JCA, 8).getHash();
+        same = new Hash(hash.getData());
+        other = new Block(0, 101, null, HashEngine.JCA, 8).getHash();
+    }
+
+    /**
+     * Formats a hash as hex, the first time for this Hash object.
+     *
+     * @return the hex string
+     */
+    @Benchmark
+    public String hashToString() {
+        return new Hash(
+                hash.getWord(0), hash.getWord(1), hash.getWord(2), hash.getWord(3)
+        ).toString();
+    }
+
+    /**
+     * Returns the cached hex string of a hash.
+     *
+     * @return the hex string
+     */
+    @Benchmark
+    public String hashToStringCached() {
+        return hash.toString();
+    }
+
+    /**
+     * Computes the hash code of a hash.
+     *
+     * @return the hash code
+     */
+    @Benchmark
+    public int hashHashCode() {
+        return hash.hashCode();
+    }
+
+    /**
+     * Builds a block header on top of a previous hash.
+     *
+     * @return the header words
+     */
+    @Benchmark
+    public int[] headerPrefix() {
+        return Block.headerPrefixOf(1, 100, hash, Hash.DEFAULT_DIFFICULTY);
+    }
+
+    /**
+     * Compares two equal hashes, the case every valid link check hits.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean hashEqualsSame() {
+        return hash.equals(same);
+    }
+
+    /**
+     * Compares two different hashes.
+     *
+     * @return false
+     */
+    @Benchmark
+    public boolean hashEqualsOther() {
+        return hash.equals(other);
+    }
+}
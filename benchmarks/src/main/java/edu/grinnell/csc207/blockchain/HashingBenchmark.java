@@ -0,0 +1,108 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of hashing one block header per engine. Scores are
+ * hashes per second on one thread, i.e. per core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HashingBenchmark {
+
+    private static final int CHUNK = 1024;
+
+    @Param({"jca", "sha256", "vector4", "vector8", "vector16"})
+    private String engine;
+
+    private HashEngine hashEngine;
+    private MiningEngine miningEngine;
+    private Hash prevHash;
+    private long nonce;
+
+    /**
+     * Builds the engine under test for a typical block header.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        hashEngine = engineNamed(engine);
+        prevHash = new Block(0, 100, null, hashEngine, 8).getHash();
+        // No hash meets the maximum difficulty, so every search scans its
+        // whole range.
+        miningEngine = hashEngine.newMiningEngine(
+                Block.headerPrefixOf(1, 100, prevHash, 8), Hash.MAX_DIFFICULTY
+        );
+    }
+
+    /**
+     * One mining attempt: hash a nonce and check it against the difficulty.
+     *
+     * @return whether the nonce was valid
+     */
+    @Benchmark
+    public boolean tryNonce() {
+        return miningEngine.tryNonce(nonce++);
+    }
+
+    /**
+     * A run of mining attempts through search, which the vector engines
+     * spread across their SIMD lanes.
+     *
+     * @return the valid nonce found, always -1
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNK)
+    public long search() {
+        long found = miningEngine.search(nonce, nonce + CHUNK);
+        nonce += CHUNK;
+        return found;
+    }
+
+    /**
+     * One stand-alone Block.computeHash call, as made by the nonce
+     * constructor, including the per-call engine setup.
+     *
+     * @return the hash
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public Hash computeHash() throws NoSuchAlgorithmException {
+        return Block.computeHash(1, 100, prevHash, nonce++, hashEngine, 8);
+    }
+
+    /**
+     * Looks up an engine by its benchmark parameter name.
+     *
+     * @param name the parameter name
+     * @return the hash engine
+     */
+    static HashEngine engineNamed(String name) {
+        return switch (name) {
+            case "jca" -> HashEngine.JCA;
+            case "sha256" -> HashEngine.SHA256;
+            case "vector4" -> HashEngine.vector(4);
+            case "vector8" -> HashEngine.vector(8);
+            case "vector16" -> HashEngine.vector(16);
+            default -> throw new IllegalArgumentException("Unknown engine: " + name);
+        };
+    }
+}
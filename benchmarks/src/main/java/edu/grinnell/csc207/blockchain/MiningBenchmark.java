@@ -0,0 +1,60 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mining a whole block across difficulties. Every invocation mines a
+ * different block number, so the score averages over many nonce searches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class MiningBenchmark {
+
+    @Param({"8", "12", "16", "20"})
+    private int difficulty;
+
+    @Param({"jca", "sha256"})
+    private String engine;
+
+    private HashEngine hashEngine;
+    private Hash prevHash;
+    private int num;
+
+    /**
+     * Picks the engine and a previous hash to mine on.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        hashEngine = HashingBenchmark.engineNamed(engine);
+        prevHash = new Block(0, 100, null, hashEngine, 8).getHash();
+    }
+
+    /**
+     * Mines one block on the calling thread.
+     *
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    @Benchmark
+    public Block mineBlock() throws NoSuchAlgorithmException {
+        return new Block(++num, 100, prevHash, hashEngine, difficulty);
+    }
+}
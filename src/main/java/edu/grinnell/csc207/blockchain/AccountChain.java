@@ -0,0 +1,368 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+
+/**
+ * A chain of transfers between any number of accounts, each identified by
+ * an int ID. The first block mints the initial amount into account 0; every
+ * later block is a batch of transfers, each moving a positive amount from
+ * one account to another that the sender's balance covers at that point.
+ *
+ * <p>A transfer is carried in a batch block as four ints: the sender, the
+ * receiver, the amount, and a check word that brings the four to a sum of
+ * zero. The batch total of an account block is therefore always zero, and
+ * a damaged field fails the check. IDs go up to MAX_ACCOUNT and amounts up
+ * to MAX_AMOUNT, so the check word always fits in an int.
+ *
+ * <p>Balances are kept in a BalanceMap and moved incrementally: append
+ * applies a block's transfers and removeLast undoes them, so a balance
+ * query is O(1) and nothing walks the chain except a full validity check.
+ */
+public class AccountChain {
+
+    /**
+     * The highest account ID.
+     */
+    public static final int MAX_ACCOUNT = (1 << 29) - 1;
+
+    /**
+     * The highest amount a single transfer may move.
+     */
+    public static final int MAX_AMOUNT = (1 << 30) - 1;
+
+    /**
+     * The most transfers mined into one block.
+     */
+    public static final int MAX_TRANSFERS_PER_BLOCK = 1 << 10;
+
+    private static final int TRANSFER_WORDS = 4;
+
+    private final BlockStore blocks = new ChunkedBlockStore();
+    private final BalanceMap balances = new BalanceMap();
+    private final TransactionPool pending = new TransactionPool();
+    private final BitSet fromPool = new BitSet();
+    private final int initial;
+    private final int difficulty;
+    private final HashEngine hashEngine;
+
+    /**
+     * Initialize first block in chain, minting the initial amount into
+     * account 0.
+     *
+     * @param initial the initial amount, at least 0
+     * @param difficulty the number of leading zero bits every block needs
+     * @param hashEngine the hash engine used to mine blocks
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public AccountChain(int initial, int difficulty, HashEngine hashEngine)
+            throws NoSuchAlgorithmException {
+        if (initial < 0) {
+            throw new IllegalArgumentException("Initial amount cannot be negative");
+        }
+        this.initial = initial;
+        this.difficulty = Hash.checkDifficulty(difficulty);
+        this.hashEngine = hashEngine;
+        blocks.add(new Block(0, initial, null, hashEngine, difficulty));
+        balances.add(0, initial);
+    }
+
+    /**
+     * Adds a transfer to be mined into a later block. Whether the sender can
+     * cover it is checked when its block is appended.
+     *
+     * @param sender the account the amount leaves
+     * @param receiver the account the amount goes to
+     * @param amount the amount, at least 1
+     * @throws IllegalArgumentException if an ID or the amount is out of
+     *     range, or the sender is the receiver
+     */
+    public void submit(int sender, int receiver, int amount) {
+        checkTransfer(sender, receiver, amount);
+        pending.add(sender);
+        pending.add(receiver);
+        pending.add(amount);
+        pending.add(-(sender + receiver + amount));
+    }
+
+    /**
+     * Returns the number of transfers waiting to be mined.
+     *
+     * @return the number of pending transfers
+     */
+    public int getPendingCount() {
+        return pending.size() / TRANSFER_WORDS;
+    }
+
+    /**
+     * Mines the oldest pending transfers, up to MAX_TRANSFERS_PER_BLOCK,
+     * into a block. They stay pending until that block is appended.
+     *
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IllegalStateException if no transfers are pending
+     */
+    public Block minePending() throws NoSuchAlgorithmException {
+        if (pending.size() == 0) {
+            throw new IllegalStateException("No transfers are pending");
+        }
+        int[] words = pending.peek(MAX_TRANSFERS_PER_BLOCK * TRANSFER_WORDS);
+        return new Block(getSize(), words, getHash(), hashEngine, difficulty);
+    }
+
+    /**
+     * Adds a block of transfers to the end of the chain and moves the
+     * balances. If its transfers are the oldest pending ones, however it was
+     * mined, they are no longer pending.
+     *
+     * @param blk the block to append
+     * @throws IllegalArgumentException if the block does not extend the
+     *     chain, has the wrong difficulty or an invalid hash, is not a batch
+     *     of well-formed transfers, or a sender cannot cover a transfer
+     */
+    public void append(Block blk) {
+        if (blk.getNum() != getSize()
+                || !getHash().equals(blk.getPrevHash())
+                || blk.getDifficulty() != difficulty
+                || !blk.hasValidHash()
+                || !blk.isBatch()
+                || blk.getTransactionCount() % TRANSFER_WORDS != 0) {
+            throw new IllegalArgumentException("Block is not valid");
+        }
+        int[] words = blk.getTransactions();
+        int applied = apply(balances, words);
+        if (applied < words.length) {
+            undo(balances, words, applied);
+            throw new IllegalArgumentException(
+                    "Transfer " + applied / TRANSFER_WORDS + " of the block is not valid"
+            );
+        }
+        blocks.add(blk);
+        if (pending.startsWith(words)) {
+            pending.removeFirst(words.length);
+            fromPool.set(getSize() - 1);
+        }
+    }
+
+    /**
+     * Removes the last block from the chain and undoes its transfers,
+     * returning true. If the chain only contains a single block, then
+     * removeLast does nothing and returns false. If the block's transfers
+     * came from the pending pool, they go back to its front, ahead of any
+     * submitted since, to be mined again first.
+     *
+     * @return true if a block was removed, false otherwise
+     */
+    public boolean removeLast() {
+        if (getSize() == 1) {
+            return false;
+        }
+        int last = getSize() - 1;
+        int[] words = blocks.last().getTransactions();
+        undo(balances, words, words.length);
+        blocks.removeLast();
+        if (fromPool.get(last)) {
+            fromPool.clear(last);
+            pending.addFirst(words);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the chain.
+     *
+     * @return number of blocks in the chain
+     */
+    public int getSize() {
+        return blocks.size();
+    }
+
+    /**
+     * Returns the hash of the last block in the chain.
+     *
+     * @return hash of the last block
+     */
+    public Hash getHash() {
+        return blocks.last().getHash();
+    }
+
+    /**
+     * Returns the block at the given position in the chain.
+     *
+     * @param index the index of the block, where 0 is the first block
+     * @return the block at the index
+     */
+    public Block getBlock(int index) {
+        return blocks.get(index);
+    }
+
+    /**
+     * Returns the balance of an account.
+     *
+     * @param account the account ID
+     * @return its balance, 0 for an account that never received anything
+     */
+    public long getBalance(int account) {
+        return balances.get(account);
+    }
+
+    /**
+     * Returns the number of accounts holding a balance.
+     *
+     * @return the number of accounts with a balance other than zero
+     */
+    public int getAccountCount() {
+        return balances.size();
+    }
+
+    /**
+     * Returns the balances as they are now. Later appends and removals do
+     * not change the snapshot, and taking one copies nothing until the chain
+     * changes.
+     *
+     * @return a snapshot of every balance
+     */
+    public BalanceMap snapshot() {
+        return balances.snapshot();
+    }
+
+    /**
+     * Returns true if the chain is valid: replaying every block from the
+     * first one, each links to the one before it, meets the difficulty and
+     * carries transfers that their senders can cover, ending at the
+     * balances the chain holds. Unlike the balance queries, this walks the
+     * whole chain.
+     *
+     * @return true if valid, false otherwise
+     */
+    public boolean isValidBlockChain() {
+        BalanceMap replay = new BalanceMap();
+        replay.add(0, initial);
+        for (int i = 1; i < getSize(); i++) {
+            Block blk = blocks.get(i);
+            if (blk.getDifficulty() != difficulty
+                    || !blk.hasValidHash()
+                    || !blocks.linksToPrevious(i)
+                    || !blk.isBatch()
+                    || blk.getTransactionCount() % TRANSFER_WORDS != 0) {
+                return false;
+            }
+            int[] words = blk.getTransactions();
+            if (apply(replay, words) < words.length) {
+                return false;
+            }
+        }
+        if (replay.size() != balances.size()) {
+            return false;
+        }
+        for (int account : replay.accounts()) {
+            if (replay.get(account) != balances.get(account)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prints the balance of every account holding one, in order of ID, in
+     * the form: Account &lt;id&gt;: &lt;amt&gt;
+     */
+    public void printBalances() {
+        StringBuilder sb = new StringBuilder();
+        for (int account : balances.accounts()) {
+            sb.append("Account ").append(account).append(": ");
+            sb.append(balances.get(account)).append('\n');
+        }
+        System.out.println(sb);
+    }
+
+    /**
+     * Returns a string representation of the chain.
+     *
+     * @return formatted string of each block, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        ChainRenderer renderer = new ChainRenderer(sb);
+        try {
+            for (int i = 0; i < getSize(); i++) {
+                renderer.renderBlock(blocks.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Applies transfers in order until one is malformed or its sender
+     * cannot cover it.
+     *
+     * @param state the balances to move
+     * @param words the transfers, four words each
+     * @return the number of words applied, words.length if all were
+     */
+    private static int apply(BalanceMap state, int[] words) {
+        for (int i = 0; i < words.length; i += TRANSFER_WORDS) {
+            int sender = words[i];
+            int receiver = words[i + 1];
+            int amount = words[i + 2];
+            if (!isWellFormed(sender, receiver, amount)
+                    || sender + receiver + amount + words[i + 3] != 0
+                    || state.get(sender) < amount) {
+                return i;
+            }
+            state.add(sender, -amount);
+            state.add(receiver, amount);
+        }
+        return words.length;
+    }
+
+    /**
+     * Undoes the first transfers of a block, last first.
+     *
+     * @param state the balances to move back
+     * @param words the transfers, four words each
+     * @param applied the number of words that were applied
+     */
+    private static void undo(BalanceMap state, int[] words, int applied) {
+        for (int i = applied - TRANSFER_WORDS; i >= 0; i -= TRANSFER_WORDS) {
+            state.add(words[i + 1], -words[i + 2]);
+            state.add(words[i], words[i + 2]);
+        }
+    }
+
+    /**
+     * Checks the fields of a transfer.
+     *
+     * @param sender the sending account
+     * @param receiver the receiving account
+     * @param amount the amount
+     */
+    private static void checkTransfer(int sender, int receiver, int amount) {
+        if (!isWellFormed(sender, receiver, amount)) {
+            throw new IllegalArgumentException(
+                    "Not a valid transfer of " + amount + " from " + sender + " to " + receiver
+            );
+        }
+    }
+
+    /**
+     * Returns true if the fields of a transfer are in range and the sender
+     * is not the receiver.
+     *
+     * @param sender the sending account
+     * @param receiver the receiving account
+     * @param amount the amount
+     * @return true if the transfer is well formed, false otherwise
+     */
+    private static boolean isWellFormed(int sender, int receiver, int amount) {
+        return sender >= 0 && sender <= MAX_ACCOUNT
+                && receiver >= 0 && receiver <= MAX_ACCOUNT
+                && sender != receiver
+                && amount >= 1 && amount <= MAX_AMOUNT;
+    }
+}
@@ -0,0 +1,226 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.util.Arrays;
+
+/**
+ * Account balances in an open-addressing table from account IDs to
+ * balances. Each slot holds the ID plus one as an int, so that 0 marks an
+ * empty slot, and the balance as a long; collisions are resolved by linear
+ * probing. An account is only stored while its balance is not zero, so a
+ * transfer that is undone leaves the table as it was. The table doubles
+ * when it is four fifths full, so until accounts are emptied each one takes
+ * 12 to 30 bytes of table.
+ *
+ * <p>A snapshot shares the tables of the map it was taken from until either
+ * one changes, and the one that changes copies them first. Taking a snapshot
+ * is therefore O(1), and only a map that keeps changing pays for a copy,
+ * once per snapshot. Balances can only be changed from within the package.
+ */
+public class BalanceMap {
+
+    private static final int MIN_CAPACITY = 1 << 4;
+    private static final int FIBONACCI = 0x9e3779b9;
+
+    private int[] keys;
+    private long[] balances;
+    private int size;
+    private int shift;
+    private boolean shared;
+
+    /**
+     * Instantiates an empty BalanceMap.
+     */
+    BalanceMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Instantiates a BalanceMap that shares another's tables.
+     *
+     * @param other the map to share with
+     */
+    private BalanceMap(BalanceMap other) {
+        keys = other.keys;
+        balances = other.balances;
+        size = other.size;
+        shift = other.shift;
+        shared = true;
+    }
+
+    /**
+     * Returns the balance of an account.
+     *
+     * @param account the account ID
+     * @return the balance, 0 for an account never seen
+     */
+    public long get(int account) {
+        int key = keyOf(account);
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return balances[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of accounts with a balance other than zero.
+     *
+     * @return the number of accounts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the IDs of the accounts with a balance other than zero.
+     *
+     * @return the account IDs in increasing order
+     */
+    public int[] accounts() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != 0) {
+                result[n++] = key - 1;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the balances that later changes to either map do
+     * not affect.
+     *
+     * @return the snapshot
+     */
+    public BalanceMap snapshot() {
+        shared = true;
+        return new BalanceMap(this);
+    }
+
+    /**
+     * Adds an amount to an account's balance.
+     *
+     * @param account the account ID, at least 0 and below Integer.MAX_VALUE
+     * @param delta the amount to add, negative to take away
+     */
+    void add(int account, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (shared) {
+            keys = keys.clone();
+            balances = balances.clone();
+            shared = false;
+        }
+        int key = keyOf(account);
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            if (5L * (size + 1) > 4L * keys.length) {
+                grow();
+                add(account, delta);
+                return;
+            }
+            keys[slot] = key;
+            size++;
+        }
+        balances[slot] += delta;
+        if (balances[slot] == 0) {
+            removeAt(slot);
+        }
+    }
+
+    /**
+     * Returns the number of slots in the table.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Empties a slot. Later entries of the probe run are shifted back so
+     * that lookups never stop early at the freed slot.
+     *
+     * @param slot the slot to empty
+     */
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            // Move the entry back unless its home lies cyclically in (hole, next].
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                balances[hole] = balances[next];
+                hole = next;
+            }
+        }
+        keys[hole] = 0;
+        balances[hole] = 0;
+        size--;
+    }
+
+    /**
+     * Doubles the table and reinserts every entry.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldBalances = balances;
+        allocate(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slotOf(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                balances[slot] = oldBalances[i];
+            }
+        }
+    }
+
+    /**
+     * Replaces the table with an empty one.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        balances = new long[capacity];
+        shift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Returns the home slot of a key, taken from the high bits of a
+     * multiplicative hash so that nearby IDs spread across the table.
+     *
+     * @param key the key
+     * @return the slot
+     */
+    private int slotOf(int key) {
+        return (key * FIBONACCI) >>> shift;
+    }
+
+    /**
+     * Returns the key of an account.
+     *
+     * @param account the account ID
+     * @return the ID plus one
+     */
+    private static int keyOf(int account) {
+        if (account < 0 || account == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid account " + account);
+        }
+        return account + 1;
+    }
+}
@@ -1,7 +1,5 @@
 package edu.grinnell.csc207.blockchain;
 
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -15,6 +13,15 @@ public class Block {
     private Hash prevHash;
     private long nonce;
     private Hash blockHash;
+    private int difficulty;
+    private int[] transactions;
+
+    /**
+     * Instantiates an empty Block for subclasses that supply their fields
+     * from elsewhere, such as the views of a ColumnarBlockStore.
+     */
+    Block() {
+    }
 
     /**
      * Instantiates Block.
@@ -26,10 +33,41 @@ public class Block {
      * available
      */
     public Block(int num, int amount, Hash prevHash) throws NoSuchAlgorithmException {
+        this(num, amount, prevHash, HashEngine.JCA);
+    }
+
+    /**
+     * Instantiates Block, mining it with the given hash engine.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param engine the hash engine to mine with
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(int num, int amount, Hash prevHash, HashEngine engine)
+            throws NoSuchAlgorithmException {
+        this(num, amount, prevHash, engine, Hash.DEFAULT_DIFFICULTY);
+    }
+
+    /**
+     * Instantiates Block, mining it with the given hash engine until its hash
+     * has the given number of leading zero bits.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param engine the hash engine to mine with
+     * @param difficulty the number of leading zero bits required
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(int num, int amount, Hash prevHash, HashEngine engine, int difficulty)
+            throws NoSuchAlgorithmException {
         this.num = num;
         this.amount = amount;
         this.prevHash = prevHash;
-        mineBlock();
+        this.difficulty = difficulty;
+        mineBlock(engine);
     }
 
     /**
@@ -43,18 +81,132 @@ public class Block {
      */
     public Block(int num, int amount, Hash prevHash, long nonce)
             throws NoSuchAlgorithmException {
+        this(num, amount, prevHash, nonce, HashEngine.JCA);
+    }
+
+    /**
+     * Instantiates Block given a nonce, hashing it with the given hash engine.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param nonce the nonce to be used
+     * @param engine the hash engine to hash with
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(int num, int amount, Hash prevHash, long nonce, HashEngine engine)
+            throws NoSuchAlgorithmException {
+        this(num, amount, prevHash, nonce, engine, Hash.DEFAULT_DIFFICULTY);
+    }
+
+    /**
+     * Instantiates Block given a nonce and the difficulty it was mined at,
+     * hashing it with the given hash engine. The hash is not checked against
+     * the difficulty here; BlockChain does that.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param nonce the nonce to be used
+     * @param engine the hash engine to hash with
+     * @param difficulty the number of leading zero bits the block claims
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(
+            int num, int amount, Hash prevHash, long nonce, HashEngine engine, int difficulty
+    ) throws NoSuchAlgorithmException {
 
         this.num = num;
         this.amount = amount;
         this.prevHash = prevHash;
         this.nonce = nonce;
-        this.blockHash = computeHash(
-                num,
-                amount,
-                new BigInteger(prevHash.toString(), 16),
-                nonce,
-                getBufferSize()
-        );
+        this.difficulty = difficulty;
+        this.blockHash = computeHash(num, amount, prevHash, nonce, engine, difficulty);
+    }
+
+    /**
+     * Instantiates a block that carries a batch of transactions, mining it
+     * with the given hash engine until its hash has the given number of
+     * leading zero bits. The header commits to the Merkle root of the batch,
+     * and the block's amount is the batch total.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order; copied
+     * @param prevHash the hash of the previous block
+     * @param engine the hash engine to mine with
+     * @param difficulty the number of leading zero bits required
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(int num, int[] transactions, Hash prevHash, HashEngine engine, int difficulty)
+            throws NoSuchAlgorithmException {
+        this.num = num;
+        this.transactions = transactions.clone();
+        this.amount = totalOf(transactions);
+        this.prevHash = prevHash;
+        this.difficulty = difficulty;
+        mineBlock(engine);
+    }
+
+    /**
+     * Instantiates a block that carries a batch of transactions given its
+     * nonce, hashing it with the given hash engine.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order; copied
+     * @param prevHash the hash of the previous block
+     * @param nonce the nonce to be used
+     * @param engine the hash engine to hash with
+     * @param difficulty the number of leading zero bits the block claims
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block(
+            int num, int[] transactions, Hash prevHash, long nonce, HashEngine engine,
+            int difficulty
+    ) throws NoSuchAlgorithmException {
+
+        this.num = num;
+        this.transactions = transactions.clone();
+        this.amount = totalOf(transactions);
+        this.prevHash = prevHash;
+        this.nonce = nonce;
+        this.difficulty = difficulty;
+        this.blockHash = computeHash(engine);
+    }
+
+    /**
+     * Restores a block whose hash is already known, such as one read back
+     * from a BlockLog, without hashing it again.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param nonce the nonce of the block
+     * @param difficulty the number of leading zero bits the block claims
+     * @param blockHash the stored hash of the block
+     */
+    Block(int num, int amount, Hash prevHash, long nonce, int difficulty, Hash blockHash) {
+        this.num = num;
+        this.amount = amount;
+        this.prevHash = prevHash;
+        this.nonce = nonce;
+        this.difficulty = difficulty;
+        this.blockHash = blockHash;
+    }
+
+    /**
+     * Restores a batch block whose hash is already known without hashing it
+     * again.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order; not copied
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param nonce the nonce of the block
+     * @param difficulty the number of leading zero bits the block claims
+     * @param blockHash the stored hash of the block
+     */
+    Block(int num, int[] transactions, Hash prevHash, long nonce, int difficulty, Hash blockHash) {
+        this(num, totalOf(transactions), prevHash, nonce, difficulty, blockHash);
+        this.transactions = transactions;
     }
 
     /**
@@ -62,75 +214,160 @@ public class Block {
      *
      * @param num the block number
      * @param amount the amount transferred
-     * @param prevLong the previous hash converted to BigInteger
+     * @param prevHash the hash of the previous block, or null for genesis
      * @param nonce the nonce value
-     * @param bufferSize the buffer size for byte array
+     * @param engine the hash engine to hash with
+     * @param difficulty the number of leading zero bits the block claims
      * @return the hash of the block
      * @throws NoSuchAlgorithmException if SHA-256 is not available
      */
-    private static Hash computeHash(
-            int num, int amount, BigInteger prevLong, long nonce, int bufferSize
+    static Hash computeHash(
+            int num, int amount, Hash prevHash, long nonce, HashEngine engine, int difficulty
     ) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("sha-256");
-
-        if (num != 0) {
-            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
-            buffer.putInt(num);
-            buffer.putInt(amount);
-            buffer.putLong(prevLong.longValue());
-            buffer.putLong(nonce);
-            md.update(buffer.array());
-        } else {
-            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
-            buffer.putInt(num);
-            buffer.putInt(amount);
-            buffer.putLong(nonce);
-            md.update(buffer.array());
+        return engine.newMiningEngine(
+                headerPrefixOf(num, amount, prevHash, difficulty), Hash.DEFAULT_DIFFICULTY
+        ).hashOf(nonce);
+    }
+
+    /**
+     * Recomputes the hash of this block from its contents.
+     *
+     * @param engine the hash engine to hash with
+     * @return the hash of the block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    Hash computeHash(HashEngine engine) throws NoSuchAlgorithmException {
+        return engine.newMiningEngine(headerPrefix(), Hash.DEFAULT_DIFFICULTY).hashOf(getNonce());
+    }
+
+    /**
+     * Builds the big-endian header words of this block that precede the
+     * nonce.
+     *
+     * @return the header words before the nonce
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    int[] headerPrefix() throws NoSuchAlgorithmException {
+        return isBatch()
+                ? headerPrefixOf(getNum(), getTransactions(), getPrevHash(), getDifficulty())
+                : headerPrefixOf(getNum(), getAmount(), getPrevHash(), getDifficulty());
+    }
+
+    /**
+     * Builds the big-endian header words that precede the nonce. The header
+     * commits to the difficulty, so a stored block cannot claim a different
+     * one without its hash changing, and to all four words of the previous
+     * hash. The genesis block (number 0) has no previous hash in its header.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param difficulty the number of leading zero bits the block claims
+     * @return the header words before the nonce
+     */
+    static int[] headerPrefixOf(int num, int amount, Hash prevHash, int difficulty) {
+        if (num == 0 || prevHash == null) {
+            return new int[] {num, amount, difficulty};
         }
+        int[] prefix = new int[3 + 2 * Hash.SIZE / Long.BYTES];
+        prefix[0] = num;
+        prefix[1] = amount;
+        prefix[2] = difficulty;
+        putHash(prefix, 3, prevHash);
+        return prefix;
+    }
 
-        return new Hash(md.digest());
+    /**
+     * Builds the big-endian header words of a batch block that precede the
+     * nonce: the block number, the number of transactions, the difficulty,
+     * and a link hash whose children are the previous hash and the Merkle
+     * root, hashed as an interior node of a MerkleTree. The link commits to
+     * every bit of both in the room one hash takes, so the header stays at
+     * eleven words, which with the two nonce words and the nine bytes of
+     * SHA-256 padding fills one 64-byte compression block exactly. A genesis
+     * batch links to its root alone.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param difficulty the number of leading zero bits the block claims
+     * @return the header words before the nonce
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    static int[] headerPrefixOf(int num, int[] transactions, Hash prevHash, int difficulty)
+            throws NoSuchAlgorithmException {
+        Hash root = MerkleTree.root(transactions);
+        Hash link = (num == 0 || prevHash == null)
+                ? root
+                : MerkleTree.nodeHash(
+                        MessageDigest.getInstance("SHA-256"),
+                        new byte[1 + 2 * Hash.SIZE],
+                        prevHash,
+                        root
+                );
+        int[] prefix = new int[3 + 2 * Hash.SIZE / Long.BYTES];
+        prefix[0] = num;
+        prefix[1] = transactions.length;
+        prefix[2] = difficulty;
+        putHash(prefix, 3, link);
+        return prefix;
+    }
+
+    /**
+     * Writes the four words of a hash into header words as eight big-endian
+     * ints.
+     *
+     * @param prefix the header words
+     * @param offset the index of the first int to write
+     * @param hash the hash to write
+     */
+    private static void putHash(int[] prefix, int offset, Hash hash) {
+        for (int i = 0; i < Hash.SIZE / Long.BYTES; i++) {
+            long word = hash.getWord(i);
+            prefix[offset + 2 * i] = (int) (word >>> 32);
+            prefix[offset + 2 * i + 1] = (int) word;
+        }
     }
 
     /**
-     * Calculates the needed buffer size for byte array based on block number.
+     * Returns the total of a batch of transactions.
      *
-     * @return the required buffer size
+     * @param transactions the amounts transferred
+     * @return their sum
+     * @throws IllegalArgumentException if the batch is empty or its total
+     *     does not fit in an int
      */
-    private int getBufferSize() {
-        return (getNum() != 0)
-                ? (2 * (Integer.SIZE / 8)) + (2 * (Long.SIZE / 8))
-                : (2 * (Integer.SIZE / 8)) + (Long.SIZE / 8);
+    static int totalOf(int[] transactions) {
+        if (transactions.length == 0) {
+            throw new IllegalArgumentException("A batch needs at least one transaction");
+        }
+        int total = 0;
+        try {
+            for (int amount : transactions) {
+                total = Math.addExact(total, amount);
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Batch total overflows", e);
+        }
+        return total;
     }
 
     /**
      * Mines the nonce value and assigns the new nonce value and associated
      * hash.
      *
+     * @param hashEngine the hash engine to mine with
      * @throws NoSuchAlgorithmException if SHA-256 is not available
      */
-    private void mineBlock() throws NoSuchAlgorithmException {
-        int bufferSize = getBufferSize();
-        long nonceValue = -1;
-        Hash newHash;
-
-        BigInteger prevLong = null;
-        if (getNum() != 0 && getPrevHash() != null) {
-            prevLong = new BigInteger(getPrevHash().toString(), 16);
+    private void mineBlock(HashEngine hashEngine) throws NoSuchAlgorithmException {
+        MiningEngine engine = hashEngine.newMiningEngine(headerPrefix(), getDifficulty());
+        long nonceValue = engine.search(0, Long.MAX_VALUE);
+        if (nonceValue < 0) {
+            throw new IllegalStateException("Nonce space exhausted");
         }
 
-        do {
-            nonceValue++;
-            newHash = computeHash(
-                    getNum(),
-                    getAmount(),
-                    prevLong,
-                    nonceValue,
-                    bufferSize
-            );
-        } while (!newHash.isValid());
-
         this.nonce = nonceValue;
-        this.blockHash = newHash;
+        this.blockHash = engine.hashOf(nonceValue);
     }
 
     /**
@@ -143,7 +380,8 @@ public class Block {
     }
 
     /**
-     * Returns the amount transferred that is recorded in the current block.
+     * Returns the amount transferred that is recorded in the current block;
+     * for a batch block, the total of its transactions.
      *
      * @return the transferred amount
      */
@@ -151,6 +389,34 @@ public class Block {
         return amount;
     }
 
+    /**
+     * Returns true if this block carries a batch of transactions under a
+     * Merkle root rather than a single amount.
+     *
+     * @return true for a batch block, false otherwise
+     */
+    public boolean isBatch() {
+        return transactions != null;
+    }
+
+    /**
+     * Returns the number of transactions in this block.
+     *
+     * @return the number of transactions, 1 for a single-amount block
+     */
+    public int getTransactionCount() {
+        return transactions == null ? 1 : transactions.length;
+    }
+
+    /**
+     * Returns the amounts transferred by this block, in order.
+     *
+     * @return a new array of the transactions
+     */
+    public int[] getTransactions() {
+        return transactions == null ? new int[] {amount} : transactions.clone();
+    }
+
     /**
      * Returns the nonce value of the current block.
      *
@@ -160,6 +426,24 @@ public class Block {
         return nonce;
     }
 
+    /**
+     * Returns the number of leading zero bits this block was mined to.
+     *
+     * @return the difficulty of the block
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Returns true if the hash of this block meets its recorded difficulty.
+     *
+     * @return true if the block's proof of work is valid, false otherwise
+     */
+    public boolean hasValidHash() {
+        return getHash().isValid(getDifficulty());
+    }
+
     /**
      * Returns the hash of the previous block.
      *
@@ -186,8 +470,9 @@ public class Block {
     @Override
     public String toString() {
         return String.format(
-                "Amount: %d, Nonce: %d, prevHash: %s, hash: %s",
+                "Amount: %d%s, Nonce: %d, prevHash: %s, hash: %s",
                 getAmount(),
+                isBatch() ? ", Transactions: " + getTransactionCount() : "",
                 getNonce(),
                 getPrevHash() == null ? "null" : getPrevHash().toString(),
                 getHash().toString()
@@ -1,28 +1,96 @@
 package edu.grinnell.csc207.blockchain;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * A linked list of hash-consistent blocks representing a ledger of monetary
+ * A list of hash-consistent blocks representing a ledger of monetary
  * transactions.
  */
 public class BlockChain {
 
-    private final Node first;
-    private Node last;
-    private int size;
+    /**
+     * The number of checkpoints kept; older ones are dropped.
+     */
+    private static final int MAX_CHECKPOINTS = 64;
+
+    /**
+     * A prefix of the chain that has been validated: its size, the hash of
+     * its last block and Alice's balance after it.
+     */
+    private static final class Checkpoint {
+
+        private final int size;
+        private final Hash hash;
+        private final int aliceBalance;
+
+        /**
+         * Instantiates Checkpoint.
+         *
+         * @param size the number of blocks in the prefix
+         * @param hash the hash of its last block
+         * @param aliceBalance Alice's balance after it
+         */
+        Checkpoint(int size, Hash hash, int aliceBalance) {
+            this.size = size;
+            this.hash = hash;
+            this.aliceBalance = aliceBalance;
+        }
+    }
 
-    private class Node {
+    /**
+     * The last block mined for this chain, with how long mining it took.
+     * Mining in the background publishes one of these in a single write, so
+     * append always sees the two together.
+     */
+    private static final class Mined {
 
-        private Block data;
-        private Node next;
+        private final Block block;
+        private final long nanos;
 
-        public Node(Block data) {
-            this.data = data;
-            this.next = null;
+        /**
+         * Instantiates Mined.
+         *
+         * @param block the mined block
+         * @param nanos how long mining it took
+         */
+        Mined(Block block, long nanos) {
+            this.block = block;
+            this.nanos = nanos;
         }
     }
 
+    private final BlockStore blocks;
+    private final HashIndex hashIndex;
+    private final MerkleMountainRange accumulator;
+    private ParallelMiner miner;
+    private HashEngine hashEngine;
+    private int difficulty;
+    private int minDifficulty;
+    private RetargetPolicy retargetPolicy;
+    private final AtomicReference<Mined> lastMined = new AtomicReference<>();
+    private int aliceBalance;
+    private int validatedSize;
+    private int validatedBalance;
+    private BlockLog log;
+    private final TransactionPool pending = new TransactionPool();
+    private final BitSet fromPool = new BitSet();
+    private int batchSize = 1;
+    private ChainMetrics metrics;
+    private final int initial;
+    private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>();
+    private int checkpointInterval;
+
     /**
      * Initialize first block in chain.
      *
@@ -30,10 +98,178 @@ public class BlockChain {
      * @throws NoSuchAlgorithmException if SHA-256 is not available
      */
     public BlockChain(int initial) throws NoSuchAlgorithmException {
-        Block firstBlock = new Block(0, initial, null);
-        first = new Node(firstBlock);
-        last = first;
-        size = 1;
+        this(initial, HashEngine.JCA);
+    }
+
+    /**
+     * Initialize first block in chain, mining with the given hash engine.
+     *
+     * @param initial the initial amount
+     * @param hashEngine the hash engine used to mine blocks
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockChain(int initial, HashEngine hashEngine) throws NoSuchAlgorithmException {
+        this(initial, Hash.DEFAULT_DIFFICULTY, hashEngine);
+    }
+
+    /**
+     * Initialize first block in chain, requiring the given number of leading
+     * zero bits in every block's hash.
+     *
+     * @param initial the initial amount
+     * @param difficulty the number of leading zero bits required
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockChain(int initial, int difficulty) throws NoSuchAlgorithmException {
+        this(initial, difficulty, HashEngine.JCA);
+    }
+
+    /**
+     * Initialize first block in chain, requiring the given number of leading
+     * zero bits in every block's hash and mining with the given hash engine.
+     *
+     * @param initial the initial amount
+     * @param difficulty the number of leading zero bits required
+     * @param hashEngine the hash engine used to mine blocks
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockChain(int initial, int difficulty, HashEngine hashEngine)
+            throws NoSuchAlgorithmException {
+        this(initial, difficulty, hashEngine, new ChunkedBlockStore());
+    }
+
+    /**
+     * Initialize first block in chain, keeping the chain's blocks in the given
+     * store.
+     *
+     * @param initial the initial amount
+     * @param difficulty the number of leading zero bits required
+     * @param hashEngine the hash engine used to mine blocks
+     * @param store an empty block store to keep the blocks in
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockChain(int initial, int difficulty, HashEngine hashEngine, BlockStore store)
+            throws NoSuchAlgorithmException {
+        this(
+                new Block(0, initial, null, hashEngine, Hash.checkDifficulty(difficulty)),
+                hashEngine,
+                store
+        );
+    }
+
+    /**
+     * Starts a chain from an existing first block.
+     *
+     * @param firstBlock the first block of the chain
+     * @param hashEngine the hash engine used to mine blocks
+     * @param store an empty block store to keep the blocks in
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private BlockChain(Block firstBlock, HashEngine hashEngine, BlockStore store)
+            throws NoSuchAlgorithmException {
+        if (store.size() != 0) {
+            throw new IllegalArgumentException("Block store is not empty");
+        }
+        this.hashEngine = hashEngine;
+        this.initial = firstBlock.getAmount();
+        this.difficulty = firstBlock.getDifficulty();
+        this.minDifficulty = difficulty;
+        blocks = store;
+        blocks.add(firstBlock);
+        hashIndex = new HashIndex();
+        hashIndex.add(firstBlock.getHash(), 0);
+        accumulator = new MerkleMountainRange();
+        accumulator.append(firstBlock.getHash());
+        aliceBalance = firstBlock.getAmount();
+        validatedSize = 1;
+        validatedBalance = aliceBalance;
+    }
+
+    /**
+     * Opens the chain persisted in a block log. An empty log gets a newly
+     * mined first block; otherwise the chain is rebuilt from the log's
+     * records without mining or hashing them again, and the initial amount
+     * and current difficulty are taken from the log. Every record must still
+     * meet the given difficulty, which becomes the chain's minimum, so a log
+     * cannot lower the work the chain requires. From then on every append
+     * and removal is written to the log.
+     *
+     * @param log the block log to read and write
+     * @param initial the initial amount if the log is empty
+     * @param difficulty the number of leading zero bits required: of the
+     *     first block if the log is empty, of every record otherwise
+     * @param hashEngine the hash engine used to mine blocks
+     * @return the chain
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IOException if the log cannot be read, does not hold a chain
+     *     or holds a block below the difficulty
+     */
+    public static BlockChain open(BlockLog log, int initial, int difficulty, HashEngine hashEngine)
+            throws NoSuchAlgorithmException, IOException {
+        BlockChain chain;
+        if (log.size() == 0) {
+            chain = new BlockChain(initial, difficulty, hashEngine);
+            log.append(chain.getBlock(0));
+        } else {
+            chain = restoreFrom(log.read(0), difficulty, hashEngine, new ChunkedBlockStore());
+            for (int i = 1; i < log.size(); i++) {
+                chain.restore(log.read(i));
+            }
+        }
+        chain.log = log;
+        return chain;
+    }
+
+    /**
+     * Starts a chain from a first block read back from storage, to be
+     * continued with restore. The chain's minimum difficulty is the one
+     * given, never one read from storage.
+     *
+     * @param first the first block
+     * @param minDifficulty the lowest difficulty any restored block may have
+     * @param hashEngine the hash engine used to mine blocks
+     * @param store an empty block store to keep the blocks in
+     * @return the chain
+     * @throws IOException if the block is not a valid first block or is below
+     *     the minimum difficulty
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    static BlockChain restoreFrom(
+            Block first, int minDifficulty, HashEngine hashEngine, BlockStore store
+    ) throws IOException, NoSuchAlgorithmException {
+        Hash.checkDifficulty(minDifficulty);
+        if (first.getNum() != 0
+                || first.getPrevHash() != null
+                || first.getDifficulty() < minDifficulty
+                || !first.hasValidHash()) {
+            throw new IOException("Block 0 is not a valid first block");
+        }
+        BlockChain chain = new BlockChain(first, hashEngine, store);
+        chain.minDifficulty = minDifficulty;
+        return chain;
+    }
+
+    /**
+     * Adds a block read back from storage, checking that it continues the
+     * chain and meets the chain's minimum difficulty. Its difficulty becomes
+     * the chain's difficulty.
+     *
+     * @param blk the block to add
+     * @throws IOException if the block does not continue the chain or is
+     *     below the minimum difficulty
+     */
+    void restore(Block blk) throws IOException {
+        if (blk.getNum() != getSize()
+                || blk.getDifficulty() < minDifficulty
+                || !blk.hasValidHash()
+                || !blk.getPrevHash().equals(getHash())) {
+            throw new IOException("Block " + getSize() + " does not continue the chain");
+        }
+        hashIndex.add(blk.getHash(), getSize());
+        accumulator.append(blk.getHash());
+        blocks.add(blk);
+        aliceBalance += blk.getAmount();
+        difficulty = blk.getDifficulty();
     }
 
     /**
@@ -44,7 +280,312 @@ public class BlockChain {
      * @throws NoSuchAlgorithmException if SHA-256 is not available
      */
     public Block mine(int amount) throws NoSuchAlgorithmException {
-        return new Block(getSize(), amount, getHash());
+        MiningEvent event = new MiningEvent();
+        event.begin();
+        long start = System.nanoTime();
+        MiningTask task = new MiningTask(null, null);
+        Block blk = (miner != null)
+                ? miner.mine(getSize(), amount, getHash(), difficulty, task)
+                : new Block(getSize(), amount, getHash(), hashEngine, difficulty);
+        finishMining(blk, System.nanoTime() - start, attemptsOf(blk, task), event);
+        return blk;
+    }
+
+    /**
+     * Returns a resumable job that mines the next block of the chain as it
+     * is now. The block it finds can be appended like one from mine, as long
+     * as the chain has not changed meanwhile.
+     *
+     * @param amount the amount to transfer
+     * @return the mining job, starting from nonce 0
+     */
+    public MiningJob newMiningJob(int amount) {
+        return new MiningJob(getSize(), amount, getHash(), difficulty);
+    }
+
+    /**
+     * Starts mining a new candidate block in the background, without a
+     * deadline or progress reports.
+     *
+     * @param amount the amount to transfer
+     * @return a future of the mined block, which may be cancelled
+     */
+    public CompletableFuture<Block> mineAsync(int amount) {
+        return mineAsync(amount, MiningTask.DEFAULT_EXECUTOR, null, null);
+    }
+
+    /**
+     * Starts mining a new candidate block on the given executor. If a
+     * parallel miner is set, the executor's thread hands the search to its
+     * workers; otherwise it searches alone with the hash engine. The block
+     * continues the chain as it is now; if the chain changes before the
+     * block is appended, append rejects it. Cancelling the future, or
+     * missing the deadline, stops every searching thread within one chunk
+     * of nonces.
+     *
+     * @param amount the amount to transfer
+     * @param executor the executor to mine on
+     * @param timeout how long mining may take before the future fails with
+     *     a TimeoutException, or null for no deadline
+     * @param progress where to report progress, or null
+     * @return a future of the mined block, which may be cancelled
+     */
+    public CompletableFuture<Block> mineAsync(
+            int amount, Executor executor, Duration timeout, MiningProgress progress
+    ) {
+        int num = getSize();
+        Hash prevHash = getHash();
+        int target = difficulty;
+        HashEngine engine = hashEngine;
+        ParallelMiner parallel = miner;
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        if (timeout != null) {
+            future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        executor.execute(() -> {
+            MiningEvent event = new MiningEvent();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                MiningTask task = new MiningTask(future, progress);
+                Block blk;
+                if (parallel != null) {
+                    blk = parallel.mine(num, amount, prevHash, target, task);
+                } else {
+                    MiningEngine search = engine.newMiningEngine(
+                            Block.headerPrefixOf(num, amount, prevHash, target), target
+                    );
+                    long nonce = task.search(search);
+                    blk = nonce < 0
+                            ? null
+                            : new Block(num, amount, prevHash, nonce, engine, target);
+                }
+                if (blk != null) {
+                    finishMining(blk, System.nanoTime() - start, task.getAttempts(), event);
+                    future.complete(blk);
+                }
+            } catch (NoSuchAlgorithmException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the number of nonces tried to mine a block: those recorded by
+     * the parallel miner's workers, or, when a lone engine searched every
+     * nonce in order, those up to and including the winning one.
+     *
+     * @param blk the mined block
+     * @param task the task the parallel miner recorded in
+     * @return the number of attempts
+     */
+    private long attemptsOf(Block blk, MiningTask task) {
+        return (miner != null) ? task.getAttempts() : blk.getNonce() + 1;
+    }
+
+    /**
+     * Remembers a newly mined block and reports it to the metrics and JFR.
+     * Background mining calls this from its own thread, so everything it
+     * changes is either published in one atomic write or thread-safe.
+     *
+     * @param blk the mined block
+     * @param nanos how long mining took
+     * @param attempts the number of nonces tried by every mining thread
+     * @param event the JFR event begun before mining
+     */
+    private void finishMining(
+            Block blk, long nanos, long attempts, MiningEvent event
+    ) {
+        lastMined.set(new Mined(blk, nanos));
+        if (metrics != null) {
+            metrics.recordMining(blk, nanos, attempts);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.num = blk.getNum();
+            event.difficulty = blk.getDifficulty();
+            event.transactions = blk.getTransactionCount();
+            event.nonce = blk.getNonce();
+            event.attempts = attempts;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds a transaction to the pool of transactions waiting to be mined.
+     *
+     * @param amount the amount to transfer
+     */
+    public void submit(int amount) {
+        pending.add(amount);
+    }
+
+    /**
+     * Returns the number of submitted transactions not yet in the chain.
+     *
+     * @return the number of pending transactions
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the most transactions minePending puts in one block.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the most transactions minePending puts in one block. One proof of
+     * work then covers the whole batch.
+     *
+     * @param batchSize the batch size, at least 1
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns true if enough transactions are pending to fill a block.
+     *
+     * @return true if at least a batch of transactions is pending
+     */
+    public boolean isBatchReady() {
+        return pending.size() >= batchSize;
+    }
+
+    /**
+     * Mines a new candidate block from the oldest pending transactions, up to
+     * the batch size. A single transaction is mined as an ordinary block. The
+     * transactions stay pending until the block is appended.
+     *
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IllegalStateException if no transactions are pending
+     */
+    public Block minePending() throws NoSuchAlgorithmException {
+        if (pending.size() == 0) {
+            throw new IllegalStateException("No transactions are pending");
+        }
+        int[] transactions = pending.peek(batchSize);
+        if (transactions.length == 1) {
+            return mine(transactions[0]);
+        }
+        MiningEvent event = new MiningEvent();
+        event.begin();
+        long start = System.nanoTime();
+        MiningTask task = new MiningTask(null, null);
+        Block blk = (miner != null)
+                ? miner.mine(getSize(), transactions, getHash(), difficulty, task)
+                : new Block(getSize(), transactions, getHash(), hashEngine, difficulty);
+        finishMining(blk, System.nanoTime() - start, attemptsOf(blk, task), event);
+        return blk;
+    }
+
+    /**
+     * Returns the number of leading zero bits the next block needs.
+     *
+     * @return the current difficulty
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Returns the lowest difficulty a block of this chain may record.
+     *
+     * @return the minimum difficulty
+     */
+    public int getMinDifficulty() {
+        return minDifficulty;
+    }
+
+    /**
+     * Sets the policy that retargets the difficulty from the mining times of
+     * appended blocks. A null policy keeps the difficulty fixed. Blocks mined
+     * under the policy may be as easy as its minimum difficulty, so the chain
+     * accepts such blocks from then on.
+     *
+     * @param retargetPolicy the retarget policy to use, or null
+     */
+    public void setRetargetPolicy(RetargetPolicy retargetPolicy) {
+        this.retargetPolicy = retargetPolicy;
+        if (retargetPolicy != null) {
+            minDifficulty = Math.min(minDifficulty, retargetPolicy.getMinDifficulty());
+        }
+    }
+
+    /**
+     * Sets the hash engine used by mine when no parallel miner is set.
+     *
+     * @param hashEngine the hash engine to mine with
+     */
+    public void setHashEngine(HashEngine hashEngine) {
+        this.hashEngine = hashEngine;
+    }
+
+    /**
+     * Sets the miner used by mine. A null miner mines on the calling thread.
+     *
+     * @param miner the parallel miner to use, or null
+     */
+    public void setMiner(ParallelMiner miner) {
+        this.miner = miner;
+    }
+
+    /**
+     * Sets the metrics that mining, appending, validating and removing are
+     * recorded into. Null metrics record nothing.
+     *
+     * @param metrics the metrics to record into, or null
+     */
+    public void setMetrics(ChainMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.setChainSize(getSize());
+        }
+    }
+
+    /**
+     * Sets how often validation takes a checkpoint: after every interval
+     * validated blocks, it records the chain's size, last hash and Alice's
+     * balance there. isValidFromCheckpoint then starts from the latest
+     * checkpoint still on the chain instead of from the first block, so with
+     * a PruningBlockStore it never reads blocks that have been spilled. An
+     * interval of 0 takes no checkpoints and drops those taken.
+     * Checkpoints are kept in memory only: a chain opened from a block log
+     * starts without any, so its first such check walks the whole chain.
+     *
+     * @param checkpointInterval the number of blocks between checkpoints,
+     *     or 0
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("Checkpoint interval cannot be negative");
+        }
+        this.checkpointInterval = checkpointInterval;
+        if (checkpointInterval == 0) {
+            checkpoints.clear();
+        }
+    }
+
+    /**
+     * Returns the size of the chain at the latest checkpoint, where
+     * isValidFromCheckpoint starts.
+     *
+     * @return the number of blocks the latest checkpoint covers, or 0 if
+     *     there is none
+     */
+    public int getCheckpointSize() {
+        return checkpoints.isEmpty() ? 0 : checkpoints.peekLast().size;
     }
 
     /**
@@ -53,7 +594,7 @@ public class BlockChain {
      * @return number of blocks in the chain
      */
     public int getSize() {
-        return this.size;
+        return blocks.size();
     }
 
     /**
@@ -62,88 +603,333 @@ public class BlockChain {
      * @return hash of the last block
      */
     public Hash getHash() {
-        return last.data.getHash();
+        return blocks.last().getHash();
+    }
+
+    /**
+     * Returns the block at the given position in the chain.
+     *
+     * @param index the index of the block, where 0 is the first block
+     * @return the block at the index
+     * @throws IndexOutOfBoundsException if the index is not in the chain
+     */
+    public Block getBlock(int index) {
+        return blocks.get(index);
+    }
+
+    /**
+     * Returns the position in the chain of the block with the given hash.
+     *
+     * @param hash the hash to look for
+     * @return the index of the block, or -1 if no block has the hash
+     */
+    public int indexOf(Hash hash) {
+        return hashIndex.indexOf(hash, blocks);
+    }
+
+    /**
+     * Returns the block with the given hash.
+     *
+     * @param hash the hash to look for
+     * @return the block, or null if no block has the hash
+     */
+    public Block findByHash(Hash hash) {
+        int index = indexOf(hash);
+        return index < 0 ? null : blocks.get(index);
+    }
+
+    /**
+     * Returns the last n blocks of the chain in chain order, or the whole
+     * chain if it has fewer than n blocks.
+     *
+     * @param n the number of blocks to return
+     * @return the last blocks of the chain
+     */
+    public List<Block> tail(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot take a negative number of blocks");
+        }
+        int start = Math.max(0, getSize() - n);
+        List<Block> result = new ArrayList<>(getSize() - start);
+        for (int i = start; i < getSize(); i++) {
+            result.add(blocks.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the root of the Merkle Mountain Range kept over the hashes of
+     * the chain's blocks. It changes with every append and removal, and it
+     * is what inclusion proofs of the chain as it is now lead to.
+     *
+     * @return the root hash
+     */
+    public Hash getAccumulatorRoot() {
+        return accumulator.root();
+    }
+
+    /**
+     * Proves that a block is in the chain as it is now, in O(log n) hashes,
+     * so a client holding only the accumulator root can check it without
+     * the chain.
+     *
+     * @param index the index of the block
+     * @return the proof
+     * @throws IndexOutOfBoundsException if the index is not in the chain
+     */
+    public InclusionProof proveInclusion(int index) {
+        return accumulator.prove(index);
+    }
+
+    /**
+     * Checks, without the chain, that a block is the block at the proof's
+     * index of the chain whose accumulator root is given. The block's hash
+     * is recomputed from its contents and must meet its difficulty.
+     *
+     * @param root the accumulator root of the chain
+     * @param blk the block to check
+     * @param proof the proof from proveInclusion
+     * @return true if the block is in the chain, false otherwise
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public static boolean verifyInclusion(Hash root, Block blk, InclusionProof proof)
+            throws NoSuchAlgorithmException {
+        return blk.getNum() == proof.getIndex()
+                && blk.hasValidHash()
+                && blk.computeHash(HashEngine.JCA).equals(blk.getHash())
+                && MerkleMountainRange.verify(root, blk.getHash(), proof);
     }
 
     /**
      * Adds this block to the list, throwing an IllegalArgumentException if this
-     * block cannot be added (invalid hash or previous hash mismatch).
+     * block cannot be added (wrong difficulty, invalid hash or previous hash
+     * mismatch). If the block's transactions are the oldest pending ones,
+     * however it was mined, they leave the pending pool. A chain opened from
+     * a block log writes the block to the log first.
      *
      * @param blk the block to append
+     * @throws UncheckedIOException if the block cannot be written to the log
      */
     public void append(Block blk) {
-        if (blk.getHash().isValid()
-                && blk.getPrevHash().equals(last.data.getHash())) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (blk.getDifficulty() == difficulty
+                && blk.hasValidHash()
+                && blk.getPrevHash().equals(getHash())) {
 
-            Node newLastNode = new Node(blk);
-            last.next = newLastNode;
-            last = newLastNode;
-            this.size++;
+            if (log != null) {
+                try {
+                    log.append(blk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            hashIndex.add(blk.getHash(), getSize());
+            accumulator.append(blk.getHash());
+            blocks.add(blk);
+            aliceBalance += blk.getAmount();
+
+            if (pending.size() > 0) {
+                int[] transactions = blk.getTransactions();
+                if (pending.startsWith(transactions)) {
+                    pending.removeFirst(transactions.length);
+                    fromPool.set(getSize() - 1);
+                }
+            }
+            Mined mined = lastMined.get();
+            if (mined != null && blk == mined.block && lastMined.compareAndSet(mined, null)) {
+                if (retargetPolicy != null) {
+                    difficulty = retargetPolicy.record(difficulty, mined.nanos);
+                }
+            }
+            if (metrics != null) {
+                metrics.recordAppend(System.nanoTime() - start, getSize());
+            }
         } else {
             throw new IllegalArgumentException("Block is not valid");
         }
     }
 
     /**
-     * Walks the blockchain and ensures that its blocks are consistent and
-     * valid.
+     * Ensures that the blockchain's blocks are consistent and valid. Every
+     * block must meet the difficulty it records, which must not be below the
+     * chain's minimum, and Alice's balance must stay between zero and the
+     * initial amount after every transaction of a batch. Blocks never change
+     * once appended, so only the blocks appended since the last successful
+     * check are examined.
      *
      * @return true if valid, false otherwise
      */
     public boolean isValidBlockChain() {
-        Node curr = first.next;
-        int balance = first.data.getAmount();
-        int startingbalance = balance;
-        Hash prevHash = first.data.getHash();
+        return isValidBlockChain(false);
+    }
 
-        while (curr != null) {
-            if (!curr.data.getHash().isValid()) {
-                return false;
-            }
+    /**
+     * Ensures that the blockchain's blocks are consistent and valid, either
+     * from the last successful check or, in deep mode, by walking the whole
+     * chain again from the first block, ignoring any checkpoints.
+     *
+     * @param deep true to check every block, false to check only new blocks
+     * @return true if valid, false otherwise
+     */
+    public boolean isValidBlockChain(boolean deep) {
+        return deep ? validate(1, initial) : validate(validatedSize, validatedBalance);
+    }
 
-            balance += curr.data.getAmount();
+    /**
+     * Ensures that the blockchain's blocks are consistent and valid from the
+     * latest checkpoint on, trusting the blocks before it, or from the first
+     * block if there is no checkpoint. The checkpointed block must still
+     * have the hash it had when the checkpoint was taken.
+     *
+     * @return true if valid, false otherwise
+     */
+    public boolean isValidFromCheckpoint() {
+        Checkpoint checkpoint = checkpoints.peekLast();
+        if (checkpoint == null) {
+            return validate(1, initial);
+        }
+        if (!blocks.get(checkpoint.size - 1).getHash().equals(checkpoint.hash)) {
+            return false;
+        }
+        return validate(checkpoint.size, checkpoint.aliceBalance);
+    }
 
-            if (balance < 0) {
+    /**
+     * Checks the chain from a given block, recording how long it took.
+     *
+     * @param start the index of the first block to check
+     * @param balance Alice's balance before that block
+     * @return true if valid, false otherwise
+     */
+    private boolean validate(int start, int balance) {
+        if (metrics == null) {
+            return checkValid(start, balance);
+        }
+        long begin = System.nanoTime();
+        boolean valid = checkValid(start, balance);
+        metrics.recordValidation(System.nanoTime() - begin);
+        return valid;
+    }
+
+    /**
+     * Checks the chain from a given block for the validation methods.
+     *
+     * @param start the index of the first block to check
+     * @param balance Alice's balance before that block
+     * @return true if valid, false otherwise
+     */
+    private boolean checkValid(int start, int balance) {
+        int startingbalance = initial;
+        for (int i = start; i < blocks.size(); i++) {
+            if (blocks.difficultyAt(i) < minDifficulty || !blocks.hasValidHashAt(i)) {
                 return false;
             }
-            if (balance > startingbalance) {
-                return false;
+
+            if (blocks.isBatchAt(i)) {
+                for (int amount : blocks.get(i).getTransactions()) {
+                    balance += amount;
+                    if (balance < 0 || balance > startingbalance) {
+                        return false;
+                    }
+                }
+            } else {
+                balance += blocks.amountAt(i);
+
+                if (balance < 0) {
+                    return false;
+                }
+                if (balance > startingbalance) {
+                    return false;
+                }
             }
 
-            if (!curr.data.getPrevHash().equals(prevHash)) {
+            if (!blocks.linksToPrevious(i)) {
                 return false;
             }
-
-            prevHash = curr.data.getHash();
-            curr = curr.next;
+            if (checkpointInterval > 0 && (i + 1) % checkpointInterval == 0
+                    && i + 1 > getCheckpointSize()) {
+                if (checkpoints.size() == MAX_CHECKPOINTS) {
+                    checkpoints.removeFirst();
+                }
+                checkpoints.addLast(new Checkpoint(i + 1, blocks.get(i).getHash(), balance));
+            }
         }
 
+        validatedSize = blocks.size();
+        validatedBalance = balance;
         return true;
     }
 
     /**
      * Removes the last block from the chain, returning true. If the chain only
      * contains a single block, then removeLast does nothing and returns false.
+     * The transactions of a removed block that came from the pending pool go
+     * back to its front, ahead of any submitted since, to be mined again
+     * first. A chain opened from a block log removes the block from the log
+     * too.
      *
      * @return true if a block was removed, false otherwise
+     * @throws UncheckedIOException if the block cannot be removed from the log
      */
     public boolean removeLast() {
         if (getSize() == 1) {
             return false;
         }
+        long start = metrics == null ? 0 : System.nanoTime();
 
-        Node prev = first;
-        Node curr = first.next;
+        if (log != null) {
+            try {
+                log.removeLast();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
-        while (!curr.equals(last)) {
-            prev = curr;
-            curr = curr.next;
+        int last = getSize() - 1;
+        int amount = blocks.amountAt(last);
+        Block removed = blocks.get(last);
+        if (fromPool.get(last)) {
+            fromPool.clear(last);
+            pending.addFirst(removed.getTransactions());
+            // The pool has shifted, and a block mined from it on top of the
+            // removed one can no longer be appended anyway.
+            lastMined.set(null);
         }
+        hashIndex.remove(removed.getHash(), last);
+        accumulator.removeLast();
+        blocks.removeLast();
+        aliceBalance -= amount;
+        if (validatedSize > getSize()) {
+            validatedSize = getSize();
+            validatedBalance -= amount;
+        }
+        while (getCheckpointSize() > getSize()) {
+            checkpoints.removeLast();
+        }
+        if (metrics != null) {
+            metrics.recordRemoveLast(System.nanoTime() - start, getSize());
+        }
+        return true;
+    }
 
-        this.last = prev;
-        prev.next = null;
+    /**
+     * Returns Alice's balance: the initial amount plus every transfer,
+     * including each transaction of a batch.
+     *
+     * @return Alice's balance
+     */
+    public int getAliceBalance() {
+        return aliceBalance;
+    }
 
-        return true;
+    /**
+     * Returns Bob's balance: the negation of every transfer after the first
+     * block.
+     *
+     * @return Bob's balance
+     */
+    public int getBobBalance() {
+        return initial - aliceBalance;
     }
 
     /**
@@ -151,42 +937,24 @@ public class BlockChain {
      * Alice: &lt;amt&gt;, Bob: &lt;amt&gt;
      */
     public void printBalances() {
-        Node curr = first;
-        int aliceBalance = curr.data.getAmount();
-        int bobBalance = 0;
-
-        curr = curr.next;
-
-        while (curr != null) {
-            int temp = curr.data.getAmount();
-            aliceBalance += temp;
-            bobBalance -= temp;
-            curr = curr.next;
-        }
-
         System.out.println(
-                String.format("Alice: %d, Bob: %d\n", aliceBalance, bobBalance)
+                String.format("Alice: %d, Bob: %d\n", getAliceBalance(), getBobBalance())
         );
     }
 
     /**
-     * Returns a string representation of the BlockChain.
+     * Returns a string representation of the BlockChain. Large chains are
+     * better written with a ChainRenderer, which streams them instead.
      *
      * @return formatted string of each block, one per line
      */
     @Override
     public String toString() {
-        Node curr = first;
         final StringBuilder sb = new StringBuilder();
-        while (curr != null) {
-            sb.append(
-                    String.format(
-                            "Block: %d (%s)\n",
-                            curr.data.getNum(),
-                            curr.data.toString()
-                    )
-            );
-            curr = curr.next;
+        try {
+            new ChainRenderer(sb).render(this, 0, getSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return sb.toString();
     }
@@ -1,8 +1,22 @@
 package edu.grinnell.csc207.blockchain;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The main driver for the block chain program.
@@ -10,76 +24,194 @@ import java.util.Scanner;
 public class BlockChainDriver {
 
     /**
-     * The main entry point for the program.
+     * The number of blocks appended or removed between syncs of the block log.
+     */
+    private static final int LOG_SYNC_EVERY = 1;
+
+    /**
+     * The size of the buffer that script output is written through.
+     */
+    private static final int SCRIPT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The main entry point for the program. With --script, the commands are
+     * read from the given file, or from standard input for -, and run
+     * without prompts. With --tail, the interactive loop shows only the last
+     * blocks of the chain before each command. With --metrics, the chain's
+     * metrics are registered with JMX under the given name. With --import,
+     * the chain is read from a chain archive instead of starting from a new
+     * first block, so no amount is given, only the optional number of
+     * workers; it cannot be combined with a log file.
      *
      * @param args the command-line arguments
      * @throws java.security.NoSuchAlgorithmException if SHA-256 is not
      * available
      */
     public static void main(String[] args) throws NoSuchAlgorithmException {
-        if (args.length != 1) {
+        String script = null;
+        int tail = -1;
+        String metricsName = null;
+        String importPath = null;
+        int first = 0;
+        while (first + 1 < args.length && args[first].startsWith("--")) {
+            switch (args[first]) {
+                case "--script" ->
+                    script = args[first + 1];
+                case "--tail" ->
+                    tail = parseTail(args[first + 1]);
+                case "--metrics" ->
+                    metricsName = args[first + 1];
+                case "--import" ->
+                    importPath = args[first + 1];
+                default -> {
+                    printUsage();
+                    System.exit(1);
+                }
+            }
+            first += 2;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (importPath == null ? args.length < 1 || args.length > 3 : args.length > 1) {
             printUsage();
             System.exit(1);
         }
+        String workers = importPath != null
+                ? (args.length == 1 ? args[0] : null)
+                : (args.length >= 2 ? args[1] : null);
 
         BlockChain blockChain = null;
+        BlockLog log = null;
 
         try {
-            int number = Integer.parseInt(args[0]);
-            if (number < 0) {
-                throw new IllegalArgumentException(
-                        "Initial balance cannot be negative"
+            if (importPath != null) {
+                ChainArchive archive =
+                        new ChainArchive(Runtime.getRuntime().availableProcessors());
+                blockChain = archive.importChain(
+                        Path.of(importPath), Hash.DEFAULT_DIFFICULTY, new ChunkedBlockStore()
                 );
+            } else {
+                int number = Integer.parseInt(args[0]);
+                if (number < 0) {
+                    throw new IllegalArgumentException(
+                            "Initial balance cannot be negative"
+                    );
+                }
+                if (args.length == 3) {
+                    log = BlockLog.open(Path.of(args[2]), LOG_SYNC_EVERY);
+                    blockChain = BlockChain.open(
+                            log, number, Hash.DEFAULT_DIFFICULTY, HashEngine.JCA
+                    );
+                } else {
+                    blockChain = new BlockChain(number);
+                }
+            }
+            if (workers != null) {
+                blockChain.setMiner(new ParallelMiner(Integer.parseInt(workers)));
             }
-            blockChain = new BlockChain(number);
         } catch (NumberFormatException e) {
             System.err.println("Invalid input: Please enter a valid integer.");
             printUsage();
             System.exit(2);
+        } catch (IOException e) {
+            System.err.println(
+                    (importPath != null ? "Cannot import chain: " : "Cannot open block log: ")
+                    + e.getMessage()
+            );
+            System.exit(3);
+        }
+
+        if (metricsName != null) {
+            ChainMetrics metrics = new ChainMetrics();
+            metrics.register(metricsName);
+            blockChain.setMetrics(metrics);
+        }
+
+        if (script != null) {
+            runScript(blockChain, script);
+            closeLog(log);
+            return;
         }
 
         boolean programRunning = true;
         Scanner scanner = new Scanner(System.in);
-        Block minedBlock = null;
+        CompletableFuture<Block> mining = null;
+        boolean miningReported = false;
+        AtomicReference<String> miningStatus = new AtomicReference<>();
+        PrintWriter console = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out), SCRIPT_BUFFER_SIZE)
+        );
 
         while (programRunning) {
-            System.out.print(blockChain.toString());
+            // The miner only completes the future; its result is reported
+            // here, between commands, so it never interleaves with the prompt.
+            if (mining != null && !miningReported && mining.isDone()) {
+                reportMined(mining);
+                miningReported = true;
+            }
+            printChain(console, blockChain, tail);
             String command = getValidString(scanner, "Command? ");
 
             switch (command) {
-                case "quit" ->
+                case "quit" -> {
+                    if (mining != null) {
+                        mining.cancel(false);
+                    }
                     programRunning = false;
+                }
 
                 case "help" ->
                     printHelp();
 
                 case "mine" -> {
-                    int amount = getValidInt(scanner, "Amount transferred? ");
-                    minedBlock = blockChain.mine(amount);
-                    System.out.println(
-                            String.format(
-                                    "amount = %d, nonce = %d\n",
-                                    amount,
-                                    minedBlock.getNonce()
-                            )
-                    );
+                    if (mining != null && !mining.isDone()) {
+                        System.out.println("Already mining. Append or cancel that block first.\n");
+                    } else {
+                        int amount = getValidInt(scanner, "Amount transferred? ");
+                        miningStatus.set("Mining has started.");
+                        mining = blockChain.mineAsync(
+                                amount,
+                                MiningTask.DEFAULT_EXECUTOR,
+                                null,
+                                (attempts, hashRate) -> miningStatus.set(String.format(
+                                        "Tried %d nonces at %.0f hashes/s.", attempts, hashRate
+                                ))
+                        );
+                        miningReported = false;
+                        System.out.println(
+                                "Mining in the background. Use status, cancel or append.\n"
+                        );
+                    }
+                }
+
+                case "status" -> {
+                    if (mining == null) {
+                        System.out.println("Nothing is being mined.\n");
+                    } else if (mining.isDone()) {
+                        System.out.println("Mining has finished. Append the block.\n");
+                    } else {
+                        System.out.println(miningStatus.get() + "\n");
+                    }
+                }
+
+                case "cancel" -> {
+                    if (mining == null) {
+                        System.out.println("Nothing is being mined.\n");
+                    } else if (mining.cancel(false)) {
+                        System.out.println("Mining cancelled.\n");
+                        mining = null;
+                    } else {
+                        System.out.println("Mining has already finished. Append the block.\n");
+                    }
                 }
 
                 case "append" -> {
-                    if (minedBlock == null) {
+                    if (mining == null) {
                         System.out.println(
                                 "No blocks have been mined. Mine one first!\n"
                         );
                     } else {
-                        blockChain.append(minedBlock);
-                        System.out.println(
-                                String.format(
-                                        "Amount Transferred? %d \nNonce? %d\n",
-                                        minedBlock.getAmount(),
-                                        minedBlock.getNonce()
-                                )
-                        );
-                        minedBlock = null;
+                        appendMined(blockChain, mining);
+                        mining = null;
                     }
                 }
 
@@ -104,6 +236,140 @@ public class BlockChainDriver {
         }
 
         scanner.close();
+        closeLog(log);
+    }
+
+    /**
+     * Reports a block that has finished mining in the background. Cancelled
+     * or failed mining is reported when the block is appended instead.
+     *
+     * @param mining the completed future of the mined block
+     */
+    private static void reportMined(CompletableFuture<Block> mining) {
+        if (!mining.isCompletedExceptionally()) {
+            Block blk = mining.join();
+            System.out.println(
+                    String.format(
+                            "Mined: amount = %d, nonce = %d\n",
+                            blk.getAmount(),
+                            blk.getNonce()
+                    )
+            );
+        }
+    }
+
+    /**
+     * Waits for a block being mined in the background and appends it.
+     *
+     * @param blockChain the chain to append to
+     * @param mining the future of the mined block
+     */
+    private static void appendMined(BlockChain blockChain, CompletableFuture<Block> mining) {
+        try {
+            Block minedBlock = mining.join();
+            blockChain.append(minedBlock);
+            System.out.println(
+                    String.format(
+                            "Amount Transferred? %d \nNonce? %d\n",
+                            minedBlock.getAmount(),
+                            minedBlock.getNonce()
+                    )
+            );
+        } catch (CancellationException e) {
+            System.out.println("Mining was cancelled.\n");
+        } catch (CompletionException e) {
+            System.out.println("Mining failed: " + e.getCause().getMessage() + "\n");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Block is not valid. The chain changed while it was mined.\n");
+        }
+    }
+
+    /**
+     * Runs the commands of a script, writing through a buffer. Exits with
+     * status 4 if a command fails and 3 if the script cannot be read.
+     *
+     * @param blockChain the chain to run the commands against
+     * @param script the path of the script, or - for standard input
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private static void runScript(BlockChain blockChain, String script)
+            throws NoSuchAlgorithmException {
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out), SCRIPT_BUFFER_SIZE)
+        );
+        try (BufferedReader in = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Path.of(script))) {
+            new ScriptRunner(blockChain, out).run(in);
+        } catch (IllegalArgumentException e) {
+            out.flush();
+            System.err.println(e.getMessage());
+            System.exit(4);
+        } catch (IOException e) {
+            out.flush();
+            System.err.println("Cannot read script: " + e.getMessage());
+            System.exit(3);
+        }
+    }
+
+    /**
+     * Streams the chain, or only its last blocks, to the console.
+     *
+     * @param console the buffered console to write to
+     * @param blockChain the chain to print
+     * @param tail the number of last blocks to print, or -1 for all of them
+     */
+    private static void printChain(PrintWriter console, BlockChain blockChain, int tail) {
+        ChainRenderer renderer = new ChainRenderer(console);
+        try {
+            if (tail < 0) {
+                renderer.render(blockChain, 0, blockChain.getSize());
+            } else {
+                renderer.renderTail(blockChain, tail);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        console.flush();
+    }
+
+    /**
+     * Parses the number of blocks given to --tail. Exits with status 2 if it
+     * is not a non-negative integer.
+     *
+     * @param value the option's value
+     * @return the number of blocks
+     */
+    private static int parseTail(String value) {
+        try {
+            int tail = Integer.parseInt(value);
+            if (tail >= 0) {
+                return tail;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        System.err.println("Invalid input: --tail takes a non-negative integer.");
+        printUsage();
+        System.exit(2);
+        return -1;
+    }
+
+    /**
+     * Closes the block log, if any. Exits with status 3 if it cannot be
+     * closed.
+     *
+     * @param log the block log, or null
+     */
+    private static void closeLog(BlockLog log) {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Cannot close block log: " + e.getMessage());
+                System.exit(3);
+            }
+        }
     }
 
     /**
@@ -155,7 +421,12 @@ public class BlockChainDriver {
      * Outputs the usage instructions to the terminal.
      */
     private static void printUsage() {
-        System.out.println("Usage: java BlockChainDriver <int amount>");
+        System.out.println(
+                "Usage: java BlockChainDriver [--script <file or ->] [--tail <int blocks>]"
+                + " [--metrics <name>] <int amount> [int workers] [log file]\n"
+                + "       java BlockChainDriver [--script <file or ->] [--tail <int blocks>]"
+                + " [--metrics <name>] --import <archive> [int workers]"
+        );
     }
 
     /**
@@ -164,8 +435,10 @@ public class BlockChainDriver {
     private static void printHelp() {
         System.out.println("""
             Valid commands:
-                mine: discovers the nonce for a given transaction
-                append: appends a new block onto the end of the chain
+                mine: discovers the nonce for a given transaction in the background
+                status: reports the progress of the block being mined
+                cancel: stops mining the block being mined
+                append: waits for the mined block and appends it onto the chain
                 remove: removes the last block from the end of the chain
                 check: checks that the block chain is valid
                 report: reports the balances of Alice and Bob
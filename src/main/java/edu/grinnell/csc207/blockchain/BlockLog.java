@@ -0,0 +1,431 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable, append-only log of blocks in fixed-size records, written through
+ * memory-mapped windows of the file. Each record holds a block's number,
+ * amount, difficulty, nonce, previous hash and hash, and for a batch block
+ * the number of its transactions and where they start in a side file named
+ * after the log with ".tx" appended. A CRC-32C of those fields and of the
+ * batch's transactions ends the record. A crash can leave the last record or
+ * its transactions half written; opening the log checks every record's
+ * checksum and drops the log from the first record that does not match.
+ *
+ * <p>Appends are only guaranteed to be on disk after a sync. The log syncs on
+ * its own every syncEvery records and when closed. A BlockLog is not safe for
+ * use by several threads at once.
+ */
+public class BlockLog implements Closeable {
+
+    /**
+     * The size of one record in bytes.
+     */
+    public static final int RECORD_SIZE = 100;
+
+    private static final int MAGIC = 0x424c4b33;
+    private static final int HEADER_SIZE = 8;
+
+    // Field offsets within a record. The count is -1 for a single-amount
+    // block.
+    private static final int NUM = 0;
+    private static final int AMOUNT = 4;
+    private static final int DIFFICULTY = 8;
+    private static final int NONCE = 12;
+    private static final int PREV_HASH = 20;
+    private static final int HASH = 52;
+    private static final int COUNT = 84;
+    private static final int TX_OFFSET = 88;
+    private static final int CHECKSUM = 96;
+    private static final int WINDOW_BITS = 16;
+    private static final int WINDOW_RECORDS = 1 << WINDOW_BITS;
+    private static final int WINDOW_MASK = WINDOW_RECORDS - 1;
+    private static final long WINDOW_BYTES = (long) WINDOW_RECORDS * RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final FileChannel transactionChannel;
+    private final int syncEvery;
+    private final ByteBuffer record;
+    private final CRC32C crc;
+    private MappedByteBuffer[] windows;
+    private int[] transactions;
+    private long transactionEnd;
+    private int size;
+    private int dirtyFrom;
+    private int unsynced;
+
+    /**
+     * Instantiates BlockLog over an open channel.
+     *
+     * @param channel the channel of the log file
+     * @param transactionChannel the channel of the transaction file
+     * @param syncEvery the number of changed records between syncs
+     */
+    private BlockLog(FileChannel channel, FileChannel transactionChannel, int syncEvery) {
+        this.channel = channel;
+        this.transactionChannel = transactionChannel;
+        this.syncEvery = syncEvery;
+        this.record = ByteBuffer.allocate(RECORD_SIZE);
+        this.crc = new CRC32C();
+        this.windows = new MappedByteBuffer[1];
+    }
+
+    /**
+     * Opens the block log at the given path, creating it and its
+     * transaction file if they do not exist. Records after the first one
+     * whose checksum fails are discarded and cut from the files.
+     *
+     * @param path the log file
+     * @param syncEvery the number of appended or removed records between
+     *     syncs to disk, at least 1
+     * @return the open log
+     * @throws IOException if the file cannot be opened or is not a block log
+     */
+    public static BlockLog open(Path path, int syncEvery) throws IOException {
+        if (syncEvery < 1) {
+            throw new IllegalArgumentException("Must sync at least every record");
+        }
+        FileChannel channel = openFile(path);
+        FileChannel transactionChannel;
+        try {
+            transactionChannel = openFile(path.resolveSibling(path.getFileName() + ".tx"));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        try {
+            BlockLog log = new BlockLog(channel, transactionChannel, syncEvery);
+            log.recover();
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            transactionChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file for reading and writing, creating it if it does not
+     * exist.
+     *
+     * @param path the file
+     * @return the file's channel
+     * @throws IOException if the file cannot be opened
+     */
+    private static FileChannel openFile(Path path) throws IOException {
+        return FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    /**
+     * Reads or writes the file header, then counts the intact records and
+     * cuts off anything after them. Recovery maps the file read-only so it
+     * never grows the file before it is cut.
+     *
+     * @throws IOException if the file cannot be read or is not a block log
+     */
+    private void recover() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() < HEADER_SIZE) {
+            header.putInt(MAGIC).putInt(RECORD_SIZE).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            transactionChannel.truncate(0);
+            return;
+        }
+
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != RECORD_SIZE) {
+            throw new IOException("Not a block log");
+        }
+
+        long stored = Math.min(Integer.MAX_VALUE, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        int count = 0;
+        boolean intact = true;
+        while (intact && count < stored) {
+            int records = (int) Math.min(WINDOW_RECORDS, stored - count);
+            MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, offsetOf(count), (long) records * RECORD_SIZE
+            );
+            for (int i = 0; intact && i < records; i++) {
+                intact = readRecord(window, i * RECORD_SIZE);
+                if (intact) {
+                    count++;
+                    int batchSize = record.getInt(COUNT);
+                    if (batchSize >= 0) {
+                        transactionEnd = record.getLong(TX_OFFSET)
+                                + (long) batchSize * Integer.BYTES;
+                    }
+                }
+            }
+        }
+
+        size = count;
+        dirtyFrom = count;
+        channel.truncate(offsetOf(count));
+        channel.force(true);
+        transactionChannel.truncate(transactionEnd);
+        transactionChannel.force(true);
+    }
+
+    /**
+     * Returns the number of blocks in the log.
+     *
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads the block at the given index. The block keeps the hash stored in
+     * the log; it is not recomputed.
+     *
+     * @param index the index of the record, starting from 0
+     * @return the block in the record
+     * @throws IOException if the record cannot be read
+     */
+    public Block read(int index) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "Index " + index + " out of bounds for size " + size
+            );
+        }
+        if (!readRecord(windowOf(index), positionOf(index))) {
+            throw new IOException("Record " + index + " is damaged");
+        }
+
+        int num = record.getInt(NUM);
+        Hash prevHash = num == 0 ? null : Hash.read(record, PREV_HASH);
+        if (record.getInt(COUNT) >= 0) {
+            return new Block(
+                    num,
+                    transactions,
+                    prevHash,
+                    record.getLong(NONCE),
+                    record.getInt(DIFFICULTY),
+                    Hash.read(record, HASH)
+            );
+        }
+        return new Block(
+                num,
+                record.getInt(AMOUNT),
+                prevHash,
+                record.getLong(NONCE),
+                record.getInt(DIFFICULTY),
+                Hash.read(record, HASH)
+        );
+    }
+
+    /**
+     * Appends a block to the log. The transactions of a batch block are
+     * written to the transaction file before its record.
+     *
+     * @param blk the block to append
+     * @throws IOException if the record cannot be written
+     */
+    public void append(Block blk) throws IOException {
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Block log is full");
+        }
+        record.putInt(NUM, blk.getNum());
+        record.putInt(AMOUNT, blk.getAmount());
+        record.putInt(DIFFICULTY, blk.getDifficulty());
+        record.putLong(NONCE, blk.getNonce());
+        if (blk.getPrevHash() == null) {
+            record.put(PREV_HASH, new byte[Hash.SIZE]);
+        } else {
+            blk.getPrevHash().writeTo(record, PREV_HASH);
+        }
+        blk.getHash().writeTo(record, HASH);
+        record.putInt(COUNT, blk.isBatch() ? blk.getTransactionCount() : -1);
+        record.putLong(TX_OFFSET, transactionEnd);
+        crc.reset();
+        crc.update(record.array(), 0, CHECKSUM);
+        if (blk.isBatch()) {
+            ByteBuffer bytes = ByteBuffer.allocate(blk.getTransactionCount() * Integer.BYTES);
+            bytes.asIntBuffer().put(blk.getTransactions());
+            crc.update(bytes.array());
+            while (bytes.hasRemaining()) {
+                transactionChannel.write(bytes, transactionEnd + bytes.position());
+            }
+            transactionEnd += bytes.capacity();
+        }
+        record.putInt(CHECKSUM, (int) crc.getValue());
+
+        windowOf(size).put(positionOf(size), record.array());
+        size++;
+        changed(size - 1);
+    }
+
+    /**
+     * Removes the last block from the log. Its record is zeroed in place, so
+     * recovery stops before it even if the file is not cut before a crash,
+     * and the file is cut to its remaining records when the log is closed.
+     *
+     * @throws IOException if the record cannot be cleared
+     */
+    public void removeLast() throws IOException {
+        if (size == 0) {
+            throw new IllegalStateException("Log is empty");
+        }
+        size--;
+        MappedByteBuffer window = windowOf(size);
+        if (window.getInt(positionOf(size) + COUNT) >= 0) {
+            transactionEnd = window.getLong(positionOf(size) + TX_OFFSET);
+        }
+        window.put(positionOf(size), new byte[RECORD_SIZE]);
+        changed(size);
+    }
+
+    /**
+     * Forces every change made since the last sync to disk.
+     *
+     * @throws IOException if the changes cannot be written
+     */
+    public void sync() throws IOException {
+        if (unsynced == 0) {
+            return;
+        }
+        // Transactions go first; a record the system writes back early,
+        // ahead of them, fails its checksum and is dropped on recovery.
+        // A removed record sits just past the end, so include one extra.
+        transactionChannel.force(false);
+        int end = Math.max(size, dirtyFrom + 1);
+        for (int i = dirtyFrom; i < end; i = (i | WINDOW_MASK) + 1) {
+            int windowEnd = Math.min(end, (i | WINDOW_MASK) + 1);
+            int window = i >>> WINDOW_BITS;
+            if (window < windows.length && windows[window] != null) {
+                windows[window].force(positionOf(i), (windowEnd - i) * RECORD_SIZE);
+            }
+        }
+        dirtyFrom = size;
+        unsynced = 0;
+    }
+
+    /**
+     * Syncs the log and cuts the files to its records.
+     *
+     * @throws IOException if the log cannot be synced or cut
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+            windows = new MappedByteBuffer[0];
+            channel.truncate(offsetOf(size));
+            channel.force(true);
+            transactionChannel.truncate(transactionEnd);
+            transactionChannel.force(true);
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                transactionChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Notes that a record changed and syncs once enough have.
+     *
+     * @param index the index of the changed record
+     * @throws IOException if the changes cannot be written
+     */
+    private void changed(int index) throws IOException {
+        dirtyFrom = Math.min(dirtyFrom, index);
+        unsynced++;
+        if (unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Copies a record into the scratch buffer, reads a batch's transactions
+     * into the transactions field, and checks the checksum over both.
+     *
+     * @param window the mapped window holding the record
+     * @param position the position of the record in the window
+     * @return true if the record is intact, false otherwise
+     * @throws IOException if the transaction file cannot be read
+     */
+    private boolean readRecord(ByteBuffer window, int position) throws IOException {
+        window.get(position, record.array());
+        crc.reset();
+        crc.update(record.array(), 0, CHECKSUM);
+        transactions = null;
+        int count = record.getInt(COUNT);
+        if (count >= 0) {
+            long offset = record.getLong(TX_OFFSET);
+            long length = (long) count * Integer.BYTES;
+            if (count == 0 || offset < 0 || offset + length > transactionChannel.size()) {
+                return false;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) length);
+            while (bytes.hasRemaining()) {
+                transactionChannel.read(bytes, offset + bytes.position());
+            }
+            crc.update(bytes.array());
+            transactions = new int[count];
+            bytes.flip();
+            bytes.asIntBuffer().get(transactions);
+        } else if (count != -1) {
+            return false;
+        }
+        return record.getInt(CHECKSUM) == (int) crc.getValue();
+    }
+
+    /**
+     * Returns the mapped window holding the given record, mapping it first if
+     * needed. Mapping a window past the end of the file grows the file.
+     *
+     * @param index the index of the record
+     * @return the window
+     * @throws IOException if the window cannot be mapped
+     */
+    private MappedByteBuffer windowOf(int index) throws IOException {
+        int window = index >>> WINDOW_BITS;
+        if (window >= windows.length) {
+            windows = Arrays.copyOf(windows, Math.max(window + 1, windows.length * 2));
+        }
+        if (windows[window] == null) {
+            windows[window] = channel.map(
+                    FileChannel.MapMode.READ_WRITE, offsetOf(window << WINDOW_BITS), WINDOW_BYTES
+            );
+        }
+        return windows[window];
+    }
+
+    /**
+     * Returns the position of a record within its window.
+     *
+     * @param index the index of the record
+     * @return the byte position in the window
+     */
+    private static int positionOf(int index) {
+        return (index & WINDOW_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * Returns the position of a record in the file.
+     *
+     * @param index the index of the record
+     * @return the byte offset in the file
+     */
+    private static long offsetOf(int index) {
+        return HEADER_SIZE + (long) index * RECORD_SIZE;
+    }
+}
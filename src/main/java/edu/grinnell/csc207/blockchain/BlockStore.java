@@ -0,0 +1,101 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * The storage behind a BlockChain: an indexable sequence of blocks that
+ * grows and shrinks at the end. Besides whole blocks, a store answers the
+ * per-block questions that validation and balance reports ask, so a store
+ * that does not keep Block objects can answer them without building any.
+ */
+public interface BlockStore {
+
+    /**
+     * Returns the number of blocks stored.
+     *
+     * @return the number of blocks
+     */
+    int size();
+
+    /**
+     * Adds a block after the last one. Only the first block may have a null
+     * previous hash.
+     *
+     * @param blk the block to add
+     */
+    void add(Block blk);
+
+    /**
+     * Removes the last block.
+     */
+    void removeLast();
+
+    /**
+     * Returns the block at the given index.
+     *
+     * @param index the index of the block, starting from 0
+     * @return the block at the index
+     * @throws IndexOutOfBoundsException if the index is not in the store
+     */
+    Block get(int index);
+
+    /**
+     * Returns the last block.
+     *
+     * @return the last block
+     */
+    default Block last() {
+        return get(size() - 1);
+    }
+
+    /**
+     * Returns the amount transferred by the block at the given index.
+     *
+     * @param index the index of the block
+     * @return the amount of the block
+     */
+    default int amountAt(int index) {
+        return get(index).getAmount();
+    }
+
+    /**
+     * Returns true if the block at the given index carries a batch of
+     * transactions rather than a single amount.
+     *
+     * @param index the index of the block
+     * @return true for a batch block, false otherwise
+     */
+    default boolean isBatchAt(int index) {
+        return get(index).isBatch();
+    }
+
+    /**
+     * Returns the difficulty recorded by the block at the given index.
+     *
+     * @param index the index of the block
+     * @return the difficulty of the block
+     */
+    default int difficultyAt(int index) {
+        return get(index).getDifficulty();
+    }
+
+    /**
+     * Returns true if the hash of the block at the given index meets its
+     * recorded difficulty.
+     *
+     * @param index the index of the block
+     * @return true if the proof of work is valid, false otherwise
+     */
+    default boolean hasValidHashAt(int index) {
+        return get(index).hasValidHash();
+    }
+
+    /**
+     * Returns true if the previous hash of the block at the given index equals
+     * the hash of the block before it.
+     *
+     * @param index the index of the block, at least 1
+     * @return true if the block links to its predecessor, false otherwise
+     */
+    default boolean linksToPrevious(int index) {
+        return get(index).getPrevHash().equals(get(index - 1).getHash());
+    }
+}
@@ -0,0 +1,408 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every valid block that extends a known block, kept as a tree rooted at the
+ * first block. The canonical chain runs from the root to the tip with the
+ * most cumulative work, where a block of difficulty d counts for 2^d, the
+ * expected number of hashes it took; of tips with equal work, the first one
+ * seen stays canonical.
+ *
+ * <p>Each node keeps a skip pointer to an ancestor chosen as in Bitcoin's
+ * block index, so finding the ancestor at a given height, and with it the
+ * common ancestor of two blocks, takes O(log n) steps instead of a walk.
+ * Each node also keeps Alice's balance on its own branch, computed from its
+ * parent's when it is added, so a block that takes that balance below zero
+ * or above the initial amount is rejected on whatever branch it extends.
+ * A reorganization therefore never disconnects the old branch's blocks or
+ * connects the new one's to move the balance: it is an O(1) swap to the new
+ * tip's balance, and only finding the fork for the reorganization count
+ * takes O(log n) steps.
+ */
+public class BlockTree {
+
+    /**
+     * A block and its place in the tree.
+     */
+    private static final class Node {
+
+        private final Block block;
+        private final Node parent;
+        private final Node skip;
+        private final int height;
+        private final BigInteger work;
+        private final int aliceBalance;
+
+        /**
+         * Instantiates Node.
+         *
+         * @param block the block
+         * @param parent the node of its parent, or null for the root
+         * @param aliceBalance Alice's balance after the block on its branch
+         */
+        Node(Block block, Node parent, int aliceBalance) {
+            this.block = block;
+            this.parent = parent;
+            this.aliceBalance = aliceBalance;
+            this.height = parent == null ? 0 : parent.height + 1;
+            BigInteger own = BigInteger.ONE.shiftLeft(block.getDifficulty());
+            this.work = parent == null ? own : parent.work.add(own);
+            this.skip = parent == null ? null : parent.ancestor(skipHeight(height));
+        }
+
+        /**
+         * Returns this node's ancestor at the given height, following skip
+         * pointers whenever they do not overshoot.
+         *
+         * @param target the height of the ancestor, at most this height
+         * @return the ancestor, or this node at its own height
+         */
+        Node ancestor(int target) {
+            Node node = this;
+            while (node.height > target) {
+                int skipHeight = node.skip == null ? -1 : node.skip.height;
+                int parentSkipHeight = skipHeight(node.height - 1);
+                // Take the skip unless the parent's skip lands closer to the
+                // target without passing it.
+                if (skipHeight == target
+                        || (skipHeight > target
+                        && !(parentSkipHeight < skipHeight - 2 && parentSkipHeight >= target))) {
+                    node = node.skip;
+                } else {
+                    node = node.parent;
+                }
+            }
+            return node;
+        }
+    }
+
+    private final Map<Hash, Node> nodes = new HashMap<>();
+    private final int initial;
+    private final int minDifficulty;
+    private Node tip;
+    private long reorgs;
+    private int lastReorgDepth;
+
+    /**
+     * Starts a tree from a newly mined first block.
+     *
+     * @param initial the initial amount
+     * @param difficulty the number of leading zero bits every block needs
+     * @param hashEngine the hash engine used to mine the first block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockTree(int initial, int difficulty, HashEngine hashEngine)
+            throws NoSuchAlgorithmException {
+        this(new Block(0, initial, null, hashEngine, Hash.checkDifficulty(difficulty)));
+    }
+
+    /**
+     * Starts a tree from an existing first block, whose difficulty every
+     * later block must meet.
+     *
+     * @param first the first block
+     */
+    public BlockTree(Block first) {
+        if (first.getNum() != 0 || first.getPrevHash() != null || !first.hasValidHash()) {
+            throw new IllegalArgumentException("Block is not a valid first block");
+        }
+        tip = new Node(first, null, first.getAmount());
+        nodes.put(first.getHash(), tip);
+        initial = first.getAmount();
+        minDifficulty = first.getDifficulty();
+    }
+
+    /**
+     * Adds a block that extends any known block. If its branch then has the
+     * most work, it becomes the tip and the balances follow it.
+     *
+     * @param blk the block to add
+     * @return true if the block was added, false if it was already known
+     * @throws IllegalArgumentException if the block's parent is unknown, its
+     *     number does not follow its parent's, its hash is invalid, or it
+     *     takes Alice's balance on its branch below zero or above the
+     *     initial amount after any of its transactions
+     */
+    public boolean add(Block blk) {
+        if (nodes.containsKey(blk.getHash())) {
+            return false;
+        }
+        Node parent = blk.getPrevHash() == null ? null : nodes.get(blk.getPrevHash());
+        if (parent == null) {
+            throw new IllegalArgumentException("Block does not extend a known block");
+        }
+        if (blk.getNum() != parent.height + 1
+                || blk.getDifficulty() < minDifficulty
+                || !blk.hasValidHash()) {
+            throw new IllegalArgumentException("Block is not valid");
+        }
+
+        Node node = new Node(blk, parent, balanceAfter(blk, parent.aliceBalance));
+        nodes.put(blk.getHash(), node);
+        if (node.work.compareTo(tip.work) > 0) {
+            moveTip(node);
+        }
+        return true;
+    }
+
+    /**
+     * Returns Alice's balance after a block, checking it after each of its
+     * transactions.
+     *
+     * @param blk the block
+     * @param balance Alice's balance before it on its branch
+     * @return Alice's balance after it
+     * @throws IllegalArgumentException if the balance leaves the range from
+     *     zero to the initial amount
+     */
+    private int balanceAfter(Block blk, int balance) {
+        for (int amount : blk.getTransactions()) {
+            balance += amount;
+            if (balance < 0 || balance > initial) {
+                throw new IllegalArgumentException("Block overdraws Alice's balance");
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Makes a node the tip, counting a reorganization if it is not a
+     * descendant of the old tip. The new tip carries its own branch's
+     * balance, so no blocks are walked.
+     *
+     * @param newTip the new tip
+     */
+    private void moveTip(Node newTip) {
+        Node fork = commonAncestor(tip, newTip);
+        if (fork != tip) {
+            reorgs++;
+            lastReorgDepth = tip.height - fork.height;
+        }
+        tip = newTip;
+    }
+
+    /**
+     * Returns the number of blocks in the tree, on every branch.
+     *
+     * @return the number of blocks
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns true if the tree holds a block with the given hash.
+     *
+     * @param hash the hash to look for
+     * @return true if the block is known, false otherwise
+     */
+    public boolean contains(Hash hash) {
+        return nodes.containsKey(hash);
+    }
+
+    /**
+     * Returns the last block of the canonical chain.
+     *
+     * @return the tip
+     */
+    public Block getTip() {
+        return tip.block;
+    }
+
+    /**
+     * Returns the height of the tip, the first block being at height 0.
+     *
+     * @return the height of the canonical chain
+     */
+    public int getHeight() {
+        return tip.height;
+    }
+
+    /**
+     * Returns the cumulative work of the canonical chain.
+     *
+     * @return the sum of 2^difficulty over its blocks
+     */
+    public BigInteger getWork() {
+        return tip.work;
+    }
+
+    /**
+     * Returns the canonical block at the given height.
+     *
+     * @param height the height of the block
+     * @return the block
+     * @throws IndexOutOfBoundsException if the height is beyond the tip
+     */
+    public Block getBlock(int height) {
+        if (height < 0 || height > tip.height) {
+            throw new IndexOutOfBoundsException("Height " + height + " of " + tip.height);
+        }
+        return tip.ancestor(height).block;
+    }
+
+    /**
+     * Returns true if a block is on the canonical chain.
+     *
+     * @param hash the hash of the block
+     * @return true if the block is canonical, false if it is on another
+     *     branch or unknown
+     */
+    public boolean isCanonical(Hash hash) {
+        Node node = nodes.get(hash);
+        return node != null && node.height <= tip.height && tip.ancestor(node.height) == node;
+    }
+
+    /**
+     * Returns the ancestor of a block at the given height.
+     *
+     * @param hash the hash of the block
+     * @param height the height of the ancestor, at most the block's
+     * @return the ancestor
+     * @throws IllegalArgumentException if the block is unknown or the height
+     *     is not between 0 and the block's height
+     */
+    public Block ancestor(Hash hash, int height) {
+        Node node = nodeOf(hash);
+        if (height < 0 || height > node.height) {
+            throw new IllegalArgumentException("Height " + height + " is not below the block");
+        }
+        return node.ancestor(height).block;
+    }
+
+    /**
+     * Returns the latest block that two blocks both descend from.
+     *
+     * @param a the hash of one block
+     * @param b the hash of the other block
+     * @return their common ancestor, which may be either block itself
+     * @throws IllegalArgumentException if either block is unknown
+     */
+    public Block commonAncestor(Hash a, Hash b) {
+        return commonAncestor(nodeOf(a), nodeOf(b)).block;
+    }
+
+    /**
+     * Returns the canonical chain from the first block to the tip.
+     *
+     * @return the blocks in chain order
+     */
+    public List<Block> canonicalChain() {
+        Block[] blocks = new Block[tip.height + 1];
+        for (Node node = tip; node != null; node = node.parent) {
+            blocks[node.height] = node.block;
+        }
+        return new ArrayList<>(List.of(blocks));
+    }
+
+    /**
+     * Returns Alice's balance on the canonical chain.
+     *
+     * @return Alice's balance
+     */
+    public int getAliceBalance() {
+        return tip.aliceBalance;
+    }
+
+    /**
+     * Returns Bob's balance on the canonical chain.
+     *
+     * @return Bob's balance
+     */
+    public int getBobBalance() {
+        return initial - tip.aliceBalance;
+    }
+
+    /**
+     * Returns the number of times the tip moved to another branch.
+     *
+     * @return the number of reorganizations
+     */
+    public long getReorgCount() {
+        return reorgs;
+    }
+
+    /**
+     * Returns how many canonical blocks the last reorganization undid.
+     *
+     * @return the depth of the last reorganization, or 0 if none happened
+     */
+    public int getLastReorgDepth() {
+        return lastReorgDepth;
+    }
+
+    /**
+     * Returns the node of a known block.
+     *
+     * @param hash the hash of the block
+     * @return its node
+     */
+    private Node nodeOf(Hash hash) {
+        Node node = nodes.get(hash);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown block " + hash);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the latest common ancestor of two nodes: both are lifted to the
+     * same height, then lifted together by halving jumps that keep them apart.
+     *
+     * @param a one node
+     * @param b the other node
+     * @return their common ancestor
+     */
+    private static Node commonAncestor(Node a, Node b) {
+        if (a.height > b.height) {
+            a = a.ancestor(b.height);
+        } else if (b.height > a.height) {
+            b = b.ancestor(a.height);
+        }
+        while (a != b) {
+            if (a.skip != null && a.skip != b.skip && a.skip.height == b.skip.height) {
+                a = a.skip;
+                b = b.skip;
+            } else {
+                a = a.parent;
+                b = b.parent;
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Returns the height a node's skip pointer leads to, as in Bitcoin's
+     * block index: heights are chosen so that any ancestor can be reached in
+     * O(log n) skips and steps.
+     *
+     * @param height the height of the node
+     * @return the height of its skip target
+     */
+    static int skipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+        // Odd heights skip a little less far so that runs of skips from
+        // neighbouring nodes do not all land on the same few ancestors.
+        return (height & 1) == 1
+                ? clearLowestOne(clearLowestOne(height - 1)) + 1
+                : clearLowestOne(height);
+    }
+
+    /**
+     * Clears the lowest set bit.
+     *
+     * @param n the number
+     * @return n without its lowest set bit
+     */
+    private static int clearLowestOne(int n) {
+        return n & (n - 1);
+    }
+}
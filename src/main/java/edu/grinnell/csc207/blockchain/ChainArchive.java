@@ -0,0 +1,409 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports whole chains to a compact binary file and imports them back. A
+ * record holds only what cannot be derived: a block's kind, difficulty,
+ * nonce and hash, then its amount or its transactions. The block number is
+ * the record's position and the previous hash is the hash of the record
+ * before, so a single-amount block takes 47 bytes against a block log's 88,
+ * and batch blocks can be archived too.
+ *
+ * <p>Import runs as a pipeline of three stages. A reader thread parses
+ * records straight out of memory-mapped windows of the file into blocks and
+ * hands them on in batches; worker threads re-hash each batch from its
+ * header fields and compare against the stored hashes; the calling thread
+ * links the verified blocks onto the chain in order. Between the reader and
+ * the linker sits a bounded queue of batches, so a slow stage holds the
+ * others back instead of letting the whole file pile up in memory.
+ */
+public class ChainArchive {
+
+    private static final int MAGIC = 0x42434831;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    private static final byte SINGLE = 0;
+    private static final byte BATCH = 1;
+    // Kind, difficulty, nonce, hash and the amount or transaction count; a
+    // batch's transactions follow.
+    private static final int RECORD_SIZE = 1 + Short.BYTES + Long.BYTES + Hash.SIZE + Integer.BYTES;
+
+    private static final int BLOCKS_PER_BATCH = 1 << 12;
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final long WINDOW_BYTES = 1L << 26;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final int workers;
+    private final HashEngine hashEngine;
+
+    /**
+     * Instantiates ChainArchive using the default hash engine.
+     *
+     * @param workers the number of worker threads to verify imports with
+     */
+    public ChainArchive(int workers) {
+        this(workers, HashEngine.JCA);
+    }
+
+    /**
+     * Instantiates ChainArchive.
+     *
+     * @param workers the number of worker threads to verify imports with
+     * @param hashEngine the hash engine to re-hash with, which the imported
+     *     chain also mines with
+     */
+    public ChainArchive(int workers, HashEngine hashEngine) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        this.workers = workers;
+        this.hashEngine = hashEngine;
+    }
+
+    /**
+     * Writes every block of a chain to a file, replacing its contents.
+     *
+     * @param chain the chain to export
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void export(BlockChain chain, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            int size = chain.getSize();
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+            for (int i = 0; i < size; i++) {
+                Block blk = chain.getBlock(i);
+                int count = blk.isBatch() ? blk.getTransactionCount() : 0;
+                if (buffer.remaining() < RECORD_SIZE + count * Integer.BYTES) {
+                    drain(channel, buffer);
+                    if (buffer.remaining() < RECORD_SIZE + count * Integer.BYTES) {
+                        buffer = ByteBuffer.allocateDirect(RECORD_SIZE + count * Integer.BYTES);
+                    }
+                }
+                buffer.put(blk.isBatch() ? BATCH : SINGLE);
+                buffer.putShort((short) blk.getDifficulty());
+                buffer.putLong(blk.getNonce());
+                blk.getHash().writeTo(buffer, buffer.position());
+                buffer.position(buffer.position() + Hash.SIZE);
+                if (blk.isBatch()) {
+                    buffer.putInt(count);
+                    buffer.asIntBuffer().put(blk.getTransactions());
+                    buffer.position(buffer.position() + count * Integer.BYTES);
+                } else {
+                    buffer.putInt(blk.getAmount());
+                }
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads a chain back from a file, checking every block's hash against its
+     * contents and its difficulty against the one the caller requires, which
+     * becomes the chain's minimum. An archive therefore cannot lower the
+     * work a chain asks for. The chain mines with this archive's hash engine.
+     *
+     * @param path the file to read
+     * @param minDifficulty the lowest difficulty any block may have
+     * @param store an empty block store to keep the blocks in
+     * @return the chain
+     * @throws IOException if the file cannot be read, is not a chain archive,
+     *     or holds a block that does not verify, is below the difficulty or
+     *     does not continue the chain
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public BlockChain importChain(Path path, int minDifficulty, BlockStore store)
+            throws IOException, NoSuchAlgorithmException {
+        Hash.checkDifficulty(minDifficulty);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() < HEADER_SIZE
+                    || header.getInt(0) != MAGIC
+                    || header.getInt(Integer.BYTES) != VERSION) {
+                throw new IOException(path + " is not a chain archive");
+            }
+            int size = header.getInt(2 * Integer.BYTES);
+            if (size < 1) {
+                throw new IOException(path + " holds no blocks");
+            }
+
+            ExecutorService verifiers = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "chain-archive-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+            BlockingQueue<Future<Block[]>> batches =
+                    new ArrayBlockingQueue<>(workers * BATCHES_PER_WORKER);
+            Thread reader = new Thread(
+                    () -> readBatches(channel, size, minDifficulty, verifiers, batches),
+                    "chain-archive-reader"
+            );
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                return link(batches, size, minDifficulty, store);
+            } finally {
+                reader.interrupt();
+                verifiers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * The reader stage: parses the records in batches and queues a
+     * verification of each batch, ending with an empty batch. A failure is
+     * queued in place of the batch it stopped.
+     *
+     * @param channel the archive's channel
+     * @param size the number of blocks in the archive
+     * @param minDifficulty the lowest difficulty any block may have
+     * @param verifiers the executor of the verifier stage
+     * @param batches the queue of verified batches, in chain order
+     */
+    private void readBatches(
+            FileChannel channel,
+            int size,
+            int minDifficulty,
+            ExecutorService verifiers,
+            BlockingQueue<Future<Block[]>> batches
+    ) {
+        Future<Block[]> end = CompletableFuture.completedFuture(new Block[0]);
+        try {
+            RecordReader records = new RecordReader(channel);
+            Hash prevHash = null;
+            for (int from = 0; from < size; from += BLOCKS_PER_BATCH) {
+                Block[] batch = new Block[Math.min(BLOCKS_PER_BATCH, size - from)];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = records.next(from + i, prevHash);
+                    prevHash = batch[i].getHash();
+                }
+                int first = from;
+                batches.put(verifiers.submit(() -> verify(batch, first, minDifficulty)));
+            }
+        } catch (IOException | RuntimeException e) {
+            end = CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            // The linker has stopped and no longer takes batches.
+            return;
+        }
+        try {
+            batches.put(end);
+        } catch (InterruptedException e) {
+            // As above.
+        }
+    }
+
+    /**
+     * The verifier stage: checks every block of a batch against the required
+     * difficulty and re-hashes it from its header fields, with one mining
+     * engine for the whole batch that it points at each block's header.
+     *
+     * @param batch the blocks to verify
+     * @param first the number of the batch's first block
+     * @param minDifficulty the lowest difficulty any block may have
+     * @return the batch
+     * @throws IOException if a block is below the required difficulty, or
+     *     its hash does not match its contents or its difficulty
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private Block[] verify(Block[] batch, int first, int minDifficulty)
+            throws IOException, NoSuchAlgorithmException {
+        MiningEngine engine = null;
+        for (int i = 0; i < batch.length; i++) {
+            Block blk = batch[i];
+            if (blk.getDifficulty() < minDifficulty) {
+                throw new IOException(
+                        "Block " + (first + i) + " is below difficulty " + minDifficulty
+                );
+            }
+            int[] headerPrefix = blk.headerPrefix();
+            if (engine == null) {
+                engine = hashEngine.newMiningEngine(headerPrefix, Hash.DEFAULT_DIFFICULTY);
+            } else {
+                engine.setHeader(headerPrefix);
+            }
+            if (!engine.hashOf(blk.getNonce()).equals(blk.getHash()) || !blk.hasValidHash()) {
+                throw new IOException("Block " + (first + i) + " does not verify");
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * The linker stage: appends the verified batches onto a new chain in
+     * order.
+     *
+     * @param batches the queue of verified batches
+     * @param size the number of blocks in the archive
+     * @param minDifficulty the lowest difficulty any block may have
+     * @param store an empty block store to keep the blocks in
+     * @return the chain
+     * @throws IOException if a batch failed or a block does not continue the
+     *     chain
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private BlockChain link(
+            BlockingQueue<Future<Block[]>> batches, int size, int minDifficulty, BlockStore store
+    ) throws IOException, NoSuchAlgorithmException {
+        BlockChain chain = null;
+        try {
+            for (Block[] batch = batches.take().get(); batch.length > 0;
+                    batch = batches.take().get()) {
+                int i = 0;
+                if (chain == null) {
+                    chain = BlockChain.restoreFrom(batch[0], minDifficulty, hashEngine, store);
+                    i = 1;
+                }
+                for (; i < batch.length; i++) {
+                    chain.restore(batch[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (e.getCause() instanceof NoSuchAlgorithmException cause) {
+                throw cause;
+            }
+            throw new IOException("Import failed", e.getCause());
+        }
+        if (chain == null || chain.getSize() != size) {
+            throw new IOException("Archive ended early");
+        }
+        return chain;
+    }
+
+    /**
+     * Writes out and clears a buffer.
+     *
+     * @param channel the channel to write to
+     * @param buffer the buffer, in write mode
+     * @throws IOException if the buffer cannot be written
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Parses records one after another out of read-only mapped windows of
+     * the file. A record that runs past the end of the current window starts
+     * the next window.
+     */
+    private static final class RecordReader {
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private int position;
+
+        /**
+         * Instantiates RecordReader at the first record.
+         *
+         * @param channel the archive's channel
+         * @throws IOException if the file size cannot be read
+         */
+        RecordReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            this.windowStart = HEADER_SIZE;
+            this.window = map(windowStart, 0);
+        }
+
+        /**
+         * Parses the next record into a block, keeping the stored hash.
+         *
+         * @param num the number of the block
+         * @param prevHash the hash of the block before, or null for the first
+         * @return the block
+         * @throws IOException if the record is cut off or not a block
+         */
+        Block next(int num, Hash prevHash) throws IOException {
+            ensure(RECORD_SIZE);
+            byte kind = window.get(position);
+            int difficulty = window.getShort(position + 1);
+            long nonce = window.getLong(position + 1 + Short.BYTES);
+            Hash hash = Hash.read(window, position + 1 + Short.BYTES + Long.BYTES);
+            int value = window.getInt(position + RECORD_SIZE - Integer.BYTES);
+            if (difficulty < 0 || difficulty > Hash.MAX_DIFFICULTY
+                    || (kind != SINGLE && kind != BATCH)
+                    || (kind == BATCH && (value < 1 || num == 0))) {
+                throw new IOException("Record " + num + " is not a block");
+            }
+            if (kind == SINGLE) {
+                position += RECORD_SIZE;
+                return new Block(num, value, prevHash, nonce, difficulty, hash);
+            }
+
+            ensure(RECORD_SIZE + (long) value * Integer.BYTES);
+            int[] transactions = new int[value];
+            window.position(position + RECORD_SIZE);
+            window.asIntBuffer().get(transactions);
+            position += RECORD_SIZE + value * Integer.BYTES;
+            return new Block(num, transactions, prevHash, nonce, difficulty, hash);
+        }
+
+        /**
+         * Makes sure the next bytes of the file lie in the current window,
+         * mapping a new window from the current position if they do not.
+         *
+         * @param bytes the number of bytes needed
+         * @throws IOException if the file ends first
+         */
+        private void ensure(long bytes) throws IOException {
+            if (position + bytes <= window.limit()) {
+                return;
+            }
+            long offset = windowStart + position;
+            if (offset + bytes > fileSize) {
+                throw new IOException("Archive ended early");
+            }
+            windowStart = offset;
+            position = 0;
+            window = map(offset, bytes);
+        }
+
+        /**
+         * Maps a window of the file.
+         *
+         * @param offset the offset of the window in the file
+         * @param atLeast the fewest bytes the window must hold
+         * @return the window
+         * @throws IOException if the window cannot be mapped
+         */
+        private MappedByteBuffer map(long offset, long atLeast) throws IOException {
+            long length = Math.min(Math.max(WINDOW_BYTES, atLeast), fileSize - offset);
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.max(length, 0));
+        }
+    }
+}
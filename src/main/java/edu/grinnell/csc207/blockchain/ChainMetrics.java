@@ -0,0 +1,184 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for a BlockChain, exposed as an MXBean. A
+ * chain records into its metrics only once they are set on it, so a chain
+ * without metrics pays a single null check per operation.
+ *
+ * <p>A block's nonce attempts are counted as its nonce plus one: the nonces
+ * a sequential search tries. A ParallelMiner's workers together cover the
+ * same nonces, give or take the chunks in flight when the winner is found.
+ */
+public class ChainMetrics implements ChainMetricsMXBean {
+
+    /**
+     * The JMX domain metrics are registered under.
+     */
+    public static final String DOMAIN = "edu.grinnell.csc207.blockchain";
+
+    private final LongAdder blocksMined = new LongAdder();
+    private final LongAdder transactionsMined = new LongAdder();
+    private final LongAdder nonceAttempts = new LongAdder();
+    private final LatencyHistogram mining = new LatencyHistogram();
+    private final LatencyHistogram append = new LatencyHistogram();
+    private final LatencyHistogram validation = new LatencyHistogram();
+    private final LatencyHistogram removeLast = new LatencyHistogram();
+    private volatile int chainSize;
+
+    /**
+     * Records a mined block.
+     *
+     * @param blk the block mined
+     * @param nanos how long mining took
+     * @param attempts the number of nonces tried by every mining thread
+     */
+    void recordMining(Block blk, long nanos, long attempts) {
+        blocksMined.increment();
+        transactionsMined.add(blk.getTransactionCount());
+        nonceAttempts.add(attempts);
+        mining.record(nanos);
+    }
+
+    /**
+     * Records an appended block.
+     *
+     * @param nanos how long appending took
+     * @param size the chain size afterwards
+     */
+    void recordAppend(long nanos, int size) {
+        append.record(nanos);
+        chainSize = size;
+    }
+
+    /**
+     * Records a validation of the chain.
+     *
+     * @param nanos how long validation took
+     */
+    void recordValidation(long nanos) {
+        validation.record(nanos);
+    }
+
+    /**
+     * Records a removed block.
+     *
+     * @param nanos how long removing took
+     * @param size the chain size afterwards
+     */
+    void recordRemoveLast(long nanos, int size) {
+        removeLast.record(nanos);
+        chainSize = size;
+    }
+
+    /**
+     * Sets the chain size without recording an operation.
+     *
+     * @param size the chain size
+     */
+    void setChainSize(int size) {
+        chainSize = size;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param name the name to register under, unique per chain
+     * @return the object name registered
+     * @throws IllegalStateException if the metrics cannot be registered
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(
+                    DOMAIN + ":type=ChainMetrics,name=" + ObjectName.quote(name)
+            );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register chain metrics " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters metrics from the platform MBean server.
+     *
+     * @param objectName the name returned by register
+     * @throws IllegalStateException if the metrics cannot be unregistered
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + objectName, e);
+        }
+    }
+
+    @Override
+    public long getBlocksMined() {
+        return blocksMined.sum();
+    }
+
+    @Override
+    public long getTransactionsMined() {
+        return transactionsMined.sum();
+    }
+
+    @Override
+    public long getNonceAttempts() {
+        return nonceAttempts.sum();
+    }
+
+    @Override
+    public double getAttemptsPerBlock() {
+        long blocks = blocksMined.sum();
+        return blocks == 0 ? 0 : (double) nonceAttempts.sum() / blocks;
+    }
+
+    @Override
+    public double getHashRate() {
+        long nanos = mining.totalNanos();
+        return nanos == 0 ? 0 : nonceAttempts.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public int getChainSize() {
+        return chainSize;
+    }
+
+    @Override
+    public LatencySnapshot getMiningLatency() {
+        return mining.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getAppendLatency() {
+        return append.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getValidationLatency() {
+        return validation.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getRemoveLastLatency() {
+        return removeLast.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        blocksMined.reset();
+        transactionsMined.reset();
+        nonceAttempts.reset();
+        mining.reset();
+        append.reset();
+        validation.reset();
+        removeLast.reset();
+    }
+}
@@ -0,0 +1,82 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * The management interface of ChainMetrics, as seen through JMX.
+ */
+public interface ChainMetricsMXBean {
+
+    /**
+     * Returns the number of blocks mined.
+     *
+     * @return the number of blocks
+     */
+    long getBlocksMined();
+
+    /**
+     * Returns the number of transactions in the blocks mined.
+     *
+     * @return the number of transactions
+     */
+    long getTransactionsMined();
+
+    /**
+     * Returns the number of nonces tried across every block mined.
+     *
+     * @return the number of attempts
+     */
+    long getNonceAttempts();
+
+    /**
+     * Returns the mean number of nonces tried per block mined.
+     *
+     * @return the attempts per block, or 0 if no block was mined
+     */
+    double getAttemptsPerBlock();
+
+    /**
+     * Returns the hash rate over the time spent mining.
+     *
+     * @return the nonces tried per second of mining
+     */
+    double getHashRate();
+
+    /**
+     * Returns the number of blocks in the chain.
+     *
+     * @return the chain size
+     */
+    int getChainSize();
+
+    /**
+     * Returns the latencies of mining a block.
+     *
+     * @return the mining latencies
+     */
+    LatencySnapshot getMiningLatency();
+
+    /**
+     * Returns the latencies of appending a block.
+     *
+     * @return the append latencies
+     */
+    LatencySnapshot getAppendLatency();
+
+    /**
+     * Returns the latencies of validating the chain.
+     *
+     * @return the validation latencies
+     */
+    LatencySnapshot getValidationLatency();
+
+    /**
+     * Returns the latencies of removing the last block.
+     *
+     * @return the removal latencies
+     */
+    LatencySnapshot getRemoveLastLatency();
+
+    /**
+     * Forgets every count and latency recorded.
+     */
+    void reset();
+}
@@ -0,0 +1,160 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Objects;
+
+/**
+ * Writes blocks of a chain to an Appendable one line at a time, in the same
+ * form as BlockChain.toString. Each line is formatted into a reused char
+ * buffer, with numbers and hashes spelled digit by digit, so rendering a
+ * range allocates nothing per block beyond what the store needs to hand out
+ * the block itself.
+ */
+public class ChainRenderer {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int LINE_CAPACITY = 256;
+
+    private final Appendable out;
+    private final char[] line = new char[LINE_CAPACITY];
+    private final CharBuffer lineView = CharBuffer.wrap(line);
+    private int length;
+
+    /**
+     * Instantiates ChainRenderer.
+     *
+     * @param out where to write the rendered blocks
+     */
+    public ChainRenderer(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the blocks from, inclusive, to to, exclusive, one line each.
+     *
+     * @param chain the chain to render
+     * @param from the index of the first block to write
+     * @param to the index after the last block to write
+     * @throws IOException if the output cannot be written
+     * @throws IndexOutOfBoundsException if the range is not in the chain
+     */
+    public void render(BlockChain chain, int from, int to) throws IOException {
+        Objects.checkFromToIndex(from, to, chain.getSize());
+        for (int i = from; i < to; i++) {
+            renderBlock(chain.getBlock(i));
+        }
+    }
+
+    /**
+     * Writes the last n blocks of the chain, or the whole chain if it has
+     * fewer than n blocks.
+     *
+     * @param chain the chain to render
+     * @param n the number of blocks to write
+     * @throws IOException if the output cannot be written
+     */
+    public void renderTail(BlockChain chain, int n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cannot take a negative number of blocks");
+        }
+        render(chain, Math.max(0, chain.getSize() - n), chain.getSize());
+    }
+
+    /**
+     * Writes one block as a line of the form
+     * Block: &lt;num&gt; (&lt;block&gt;).
+     *
+     * @param blk the block to write
+     * @throws IOException if the output cannot be written
+     */
+    public void renderBlock(Block blk) throws IOException {
+        length = 0;
+        putString("Block: ");
+        putLong(blk.getNum());
+        putString(" (Amount: ");
+        putLong(blk.getAmount());
+        if (blk.isBatch()) {
+            putString(", Transactions: ");
+            putLong(blk.getTransactionCount());
+        }
+        putString(", Nonce: ");
+        putLong(blk.getNonce());
+        putString(", prevHash: ");
+        putHash(blk.getPrevHash());
+        putString(", hash: ");
+        putHash(blk.getHash());
+        putString(")\n");
+
+        if (out instanceof Writer writer) {
+            writer.write(line, 0, length);
+        } else {
+            out.append(lineView, 0, length);
+        }
+    }
+
+    /**
+     * Puts a string into the line.
+     *
+     * @param s the string
+     */
+    private void putString(String s) {
+        s.getChars(0, s.length(), line, length);
+        length += s.length();
+    }
+
+    /**
+     * Puts a number into the line in decimal.
+     *
+     * @param value the number
+     */
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            putString(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            line[length++] = '-';
+            value = -value;
+        }
+        int end = length + digitsOf(value);
+        for (int i = end - 1; i >= length; i--) {
+            line[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    /**
+     * Puts a hash into the line as 64 hex digits, or null.
+     *
+     * @param hash the hash, or null
+     */
+    private void putHash(Hash hash) {
+        if (hash == null) {
+            putString("null");
+            return;
+        }
+        for (int w = 0; w < 4; w++) {
+            long word = hash.getWord(w);
+            for (int shift = Long.SIZE - 4; shift >= 0; shift -= 4) {
+                line[length++] = HEX_DIGITS[(int) (word >>> shift) & 0xf];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of decimal digits of a non-negative number.
+     *
+     * @param value the number
+     * @return the number of digits, at least 1
+     */
+    private static int digitsOf(long value) {
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,218 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies a chain by recomputing every block's hash from its number,
+ * amount or transactions, previous hash and nonce, rather than trusting the
+ * stored hash as BlockChain.isValidBlockChain does. The chain is split into
+ * contiguous segments that worker threads re-hash in parallel, each with one
+ * mining engine that it points at every block's header in turn; each segment
+ * also checks the link from its first block back into the segment before it.
+ * The balance rule depends on every earlier block, so it is checked by a
+ * cheap sequential pass over the transactions first. That pass also takes
+ * the blocks out of the chain on the calling thread, so the workers only
+ * read Block objects and never the chain's store, which need not be safe to
+ * read from several threads.
+ *
+ * <p>A verifier owns its worker threads until it is closed.
+ */
+public class ChainVerifier implements AutoCloseable {
+
+    /**
+     * The index reported when every block is valid.
+     */
+    public static final int VALID = -1;
+
+    private static final int SEGMENTS_PER_WORKER = 4;
+    private static final int MIN_SEGMENT_SIZE = 1 << 10;
+
+    private final int workers;
+    private final HashEngine hashEngine;
+    private final ForkJoinPool pool;
+
+    /**
+     * Instantiates ChainVerifier using the default hash engine.
+     *
+     * @param workers the number of worker threads to re-hash with
+     */
+    public ChainVerifier(int workers) {
+        this(workers, HashEngine.JCA);
+    }
+
+    /**
+     * Instantiates ChainVerifier.
+     *
+     * @param workers the number of worker threads to re-hash with
+     * @param hashEngine the hash engine each worker re-hashes with
+     */
+    public ChainVerifier(int workers, HashEngine hashEngine) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        this.workers = workers;
+        this.hashEngine = hashEngine;
+        this.pool = new ForkJoinPool(workers);
+    }
+
+    /**
+     * Returns the number of worker threads used for verifying.
+     *
+     * @return the number of workers
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Shuts down the worker threads once any verification in progress ends.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Finds the first invalid block of the chain. A block is invalid if its
+     * number is not its index, its recomputed hash differs from the stored
+     * one or misses its difficulty, its difficulty is below the chain's
+     * minimum, its previous hash does not match the block before it, or it
+     * takes Alice's balance below zero or above the initial amount.
+     *
+     * @param chain the chain to verify
+     * @return the index of the first invalid block, or VALID
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public int findFirstInvalid(BlockChain chain) throws NoSuchAlgorithmException {
+        int size = chain.getSize();
+        Block[] blocks = new Block[size];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = chain.getBlock(i);
+        }
+        int minDifficulty = chain.getMinDifficulty();
+        AtomicInteger firstInvalid = new AtomicInteger(checkBalances(blocks));
+
+        int segmentSize = Math.max(
+                MIN_SEGMENT_SIZE,
+                (size + workers * SEGMENTS_PER_WORKER - 1) / (workers * SEGMENTS_PER_WORKER)
+        );
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < size; start += segmentSize) {
+            int from = start;
+            int to = Math.min(size, start + segmentSize);
+            tasks.add(() -> {
+                verifySegment(blocks, minDifficulty, from, to, firstInvalid);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Verification was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NoSuchAlgorithmException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Verification failed", e.getCause());
+        }
+
+        int result = firstInvalid.get();
+        return result == Integer.MAX_VALUE ? VALID : result;
+    }
+
+    /**
+     * Returns true if every block of the chain is valid.
+     *
+     * @param chain the chain to verify
+     * @return true if valid, false otherwise
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public boolean isValid(BlockChain chain) throws NoSuchAlgorithmException {
+        return findFirstInvalid(chain) == VALID;
+    }
+
+    /**
+     * Walks the transactions in order and finds the first block that takes
+     * Alice's balance out of range, even if only partway through a batch.
+     *
+     * @param blocks the blocks of the chain
+     * @return the index of the first such block, or Integer.MAX_VALUE
+     */
+    private static int checkBalances(Block[] blocks) {
+        int startingbalance = blocks[0].getAmount();
+        int balance = startingbalance;
+        for (int i = 1; i < blocks.length; i++) {
+            Block curr = blocks[i];
+            if (!curr.isBatch()) {
+                balance += curr.getAmount();
+                if (balance < 0 || balance > startingbalance) {
+                    return i;
+                }
+                continue;
+            }
+            for (int amount : curr.getTransactions()) {
+                balance += amount;
+                if (balance < 0 || balance > startingbalance) {
+                    return i;
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Re-hashes the blocks from, inclusive, to to, exclusive, recording the
+     * first invalid one. Stops early once an earlier block is known to be
+     * invalid.
+     *
+     * @param blocks the blocks of the chain
+     * @param minDifficulty the chain's minimum difficulty
+     * @param from the index of the first block of the segment
+     * @param to the index after the last block of the segment
+     * @param firstInvalid the lowest invalid index found so far
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private void verifySegment(Block[] blocks, int minDifficulty, int from, int to,
+            AtomicInteger firstInvalid) throws NoSuchAlgorithmException {
+
+        MiningEngine engine = null;
+        Hash prevHash = from == 0 ? null : blocks[from - 1].getHash();
+        for (int i = from; i < to && i < firstInvalid.get(); i++) {
+            Block curr = blocks[i];
+            Hash hash = curr.getHash();
+            boolean linked = (i == 0)
+                    ? curr.getPrevHash() == null
+                    : prevHash.equals(curr.getPrevHash());
+
+            if (!linked
+                    || curr.getNum() != i
+                    || curr.getDifficulty() < minDifficulty
+                    || !hash.isValid(curr.getDifficulty())) {
+                firstInvalid.accumulateAndGet(i, Math::min);
+                return;
+            }
+            int[] headerPrefix = curr.headerPrefix();
+            if (engine == null) {
+                engine = hashEngine.newMiningEngine(headerPrefix, Hash.DEFAULT_DIFFICULTY);
+            } else {
+                engine.setHeader(headerPrefix);
+            }
+            if (!hash.equals(engine.hashOf(curr.getNonce()))) {
+                firstInvalid.accumulateAndGet(i, Math::min);
+                return;
+            }
+            prevHash = hash;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of blocks stored in fixed-size chunks. Appending never
+ * copies blocks, only the small chunk directory when it fills up, and both
+ * appending and removing the last block are O(1), as is fetching a block by
+ * index.
+ */
+public class ChunkedBlockStore implements BlockStore {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private Block[][] chunks;
+    private int size;
+
+    /**
+     * Instantiates an empty ChunkedBlockStore.
+     */
+    public ChunkedBlockStore() {
+        chunks = new Block[1][];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(Block blk) {
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Block[CHUNK_SIZE];
+        }
+        chunks[chunk][size & CHUNK_MASK] = blk;
+        size++;
+    }
+
+    /**
+     * Removes the last block. When a chunk empties, the chunk after it is
+     * released, so one spare chunk is kept to avoid reallocating when blocks
+     * are removed and appended around a chunk boundary.
+     */
+    @Override
+    public void removeLast() {
+        if (size == 0) {
+            throw new IllegalStateException("Store is empty");
+        }
+        size--;
+        int chunk = size >>> CHUNK_BITS;
+        chunks[chunk][size & CHUNK_MASK] = null;
+        if ((size & CHUNK_MASK) == 0 && chunk + 1 < chunks.length) {
+            chunks[chunk + 1] = null;
+        }
+    }
+
+    @Override
+    public Block get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "Index " + index + " out of bounds for size " + size
+            );
+        }
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+}
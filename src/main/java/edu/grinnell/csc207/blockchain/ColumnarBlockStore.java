@@ -0,0 +1,346 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A block store that keeps each field of the blocks in its own primitive
+ * column instead of keeping Block objects: numbers and amounts in int arrays,
+ * difficulties in a short array, nonces in a long array, and each block's
+ * previous hash and hash side by side in one packed buffer, on the heap or
+ * off it in direct memory. That is about 86 bytes per block with no per-block
+ * objects for the garbage collector to trace, and scans such as validation
+ * read the columns sequentially.
+ *
+ * <p>Columns are split into segments of 2^16 blocks, so growing never copies
+ * existing blocks and no single array outgrows Java's array size limit.
+ * get returns a lightweight view that reads the columns on demand and acts
+ * like the Block it replaced. Each slot also records a stamp that changes
+ * whenever a block is written to it, so a view of a removed block keeps
+ * failing even after another block has been added in its place.
+ */
+public class ColumnarBlockStore implements BlockStore {
+
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int HASH_BYTES = 32;
+    private static final int HASH_PAIR_BYTES = 2 * HASH_BYTES;
+
+    private final boolean offHeap;
+    private Segment[] segments;
+    private int size;
+    private int nextStamp;
+    private boolean firstPrevNull;
+
+    /**
+     * The columns of SEGMENT_SIZE consecutive blocks.
+     */
+    private static final class Segment {
+
+        private final int[] nums = new int[SEGMENT_SIZE];
+        private final int[] amounts = new int[SEGMENT_SIZE];
+        private final short[] difficulties = new short[SEGMENT_SIZE];
+        private final long[] nonces = new long[SEGMENT_SIZE];
+        private final int[] stamps = new int[SEGMENT_SIZE];
+        private int[][] transactions;
+        private final ByteBuffer hashes;
+        private final ByteBuffer words;
+
+        /**
+         * Instantiates Segment.
+         *
+         * @param offHeap true to keep the hashes in direct memory
+         */
+        Segment(boolean offHeap) {
+            hashes = offHeap
+                    ? ByteBuffer.allocateDirect(SEGMENT_SIZE * HASH_PAIR_BYTES)
+                    : ByteBuffer.allocate(SEGMENT_SIZE * HASH_PAIR_BYTES);
+            // Comparing hashes for equality does not care about byte order,
+            // and reading words in native order skips the byte swaps.
+            words = hashes.duplicate().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Instantiates an empty ColumnarBlockStore with hashes on the heap.
+     */
+    public ColumnarBlockStore() {
+        this(false);
+    }
+
+    /**
+     * Instantiates an empty ColumnarBlockStore.
+     *
+     * @param offHeap true to keep the hashes in direct memory off the heap
+     */
+    public ColumnarBlockStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.segments = new Segment[1];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(Block blk) {
+        if (blk.getPrevHash() == null && size != 0) {
+            throw new IllegalArgumentException("Only the first block may lack a previous hash");
+        }
+
+        int segment = size >>> SEGMENT_BITS;
+        if (segment == segments.length) {
+            segments = Arrays.copyOf(segments, segments.length * 2);
+        }
+        if (segments[segment] == null) {
+            segments[segment] = new Segment(offHeap);
+        }
+
+        Segment seg = segments[segment];
+        int i = size & SEGMENT_MASK;
+        seg.nums[i] = blk.getNum();
+        seg.amounts[i] = blk.getAmount();
+        seg.difficulties[i] = (short) blk.getDifficulty();
+        seg.nonces[i] = blk.getNonce();
+        seg.stamps[i] = ++nextStamp;
+        if (blk.isBatch()) {
+            if (seg.transactions == null) {
+                seg.transactions = new int[SEGMENT_SIZE][];
+            }
+            seg.transactions[i] = blk.getTransactions();
+        } else if (seg.transactions != null) {
+            seg.transactions[i] = null;
+        }
+        int offset = i * HASH_PAIR_BYTES;
+        if (blk.getPrevHash() == null) {
+            firstPrevNull = true;
+            seg.hashes.put(offset, new byte[HASH_BYTES]);
+        } else {
+            blk.getPrevHash().writeTo(seg.hashes, offset);
+        }
+        blk.getHash().writeTo(seg.hashes, offset + HASH_BYTES);
+        size++;
+    }
+
+    @Override
+    public void removeLast() {
+        if (size == 0) {
+            throw new IllegalStateException("Store is empty");
+        }
+        size--;
+        int segment = size >>> SEGMENT_BITS;
+        if ((size & SEGMENT_MASK) == 0 && segment + 1 < segments.length) {
+            segments[segment + 1] = null;
+        }
+        if (size == 0) {
+            firstPrevNull = false;
+        }
+    }
+
+    @Override
+    public boolean isBatchAt(int index) {
+        return transactionsAt(index) != null;
+    }
+
+    @Override
+    public Block get(int index) {
+        checkIndex(index);
+        return new View(index, segmentOf(index).stamps[index & SEGMENT_MASK]);
+    }
+
+    @Override
+    public int amountAt(int index) {
+        checkIndex(index);
+        return segmentOf(index).amounts[index & SEGMENT_MASK];
+    }
+
+    @Override
+    public int difficultyAt(int index) {
+        checkIndex(index);
+        return segmentOf(index).difficulties[index & SEGMENT_MASK];
+    }
+
+    @Override
+    public boolean hasValidHashAt(int index) {
+        checkIndex(index);
+        Segment seg = segmentOf(index);
+        return Hash.meetsDifficulty(
+                seg.hashes,
+                hashOffset(index) + HASH_BYTES,
+                seg.difficulties[index & SEGMENT_MASK]
+        );
+    }
+
+    @Override
+    public boolean linksToPrevious(int index) {
+        checkIndex(index);
+        ByteBuffer prevs = segmentOf(index).words;
+        int prevOffset = hashOffset(index);
+        ByteBuffer hashes = segmentOf(index - 1).words;
+        int hashOffset = hashOffset(index - 1) + HASH_BYTES;
+        for (int i = 0; i < HASH_BYTES; i += Long.BYTES) {
+            if (prevs.getLong(prevOffset + i) != hashes.getLong(hashOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that an index refers to a stored block.
+     *
+     * @param index the index to check
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "Index " + index + " out of bounds for size " + size
+            );
+        }
+    }
+
+    /**
+     * Returns the segment holding the block at the given index.
+     *
+     * @param index the index of the block
+     * @return the segment
+     */
+    private Segment segmentOf(int index) {
+        return segments[index >>> SEGMENT_BITS];
+    }
+
+    /**
+     * Returns the offset of the previous hash of the block at the given index
+     * within its segment's hash buffer; the block's own hash follows it.
+     *
+     * @param index the index of the block
+     * @return the byte offset
+     */
+    private static int hashOffset(int index) {
+        return (index & SEGMENT_MASK) * HASH_PAIR_BYTES;
+    }
+
+    /**
+     * Reads a hash out of the packed buffer.
+     *
+     * @param index the index of the block
+     * @param offset HASH_BYTES for the block's hash, 0 for its previous hash
+     * @return the hash
+     */
+    private Hash hashAt(int index, int offset) {
+        checkIndex(index);
+        return Hash.read(segmentOf(index).hashes, hashOffset(index) + offset);
+    }
+
+    /**
+     * Returns the transactions of a batch block without copying them.
+     *
+     * @param index the index of the block
+     * @return the transactions, or null for a single-amount block
+     */
+    private int[] transactionsAt(int index) {
+        checkIndex(index);
+        int[][] transactions = segmentOf(index).transactions;
+        return transactions == null ? null : transactions[index & SEGMENT_MASK];
+    }
+
+    /**
+     * A flyweight Block that reads its fields from the columns. It holds only
+     * its index and the stamp of its slot, and hashes are copied out only
+     * when asked for. Every accessor checks both, so a view of a removed
+     * block throws rather than reading a stale or reused slot.
+     */
+    private final class View extends Block {
+
+        private final int index;
+        private final int stamp;
+
+        /**
+         * Instantiates View.
+         *
+         * @param index the index of the block it shows
+         * @param stamp the stamp of the slot when the view was made
+         */
+        View(int index, int stamp) {
+            this.index = index;
+            this.stamp = stamp;
+        }
+
+        /**
+         * Checks that the block this view shows is still in the store.
+         */
+        private void checkLive() {
+            checkIndex(index);
+            if (segmentOf(index).stamps[index & SEGMENT_MASK] != stamp) {
+                throw new IllegalStateException(
+                        "Block " + index + " was removed and its slot reused"
+                );
+            }
+        }
+
+        @Override
+        public int getNum() {
+            checkLive();
+            return segmentOf(index).nums[index & SEGMENT_MASK];
+        }
+
+        @Override
+        public int getAmount() {
+            checkLive();
+            return amountAt(index);
+        }
+
+        @Override
+        public boolean isBatch() {
+            checkLive();
+            return isBatchAt(index);
+        }
+
+        @Override
+        public int getTransactionCount() {
+            checkLive();
+            int[] transactions = transactionsAt(index);
+            return transactions == null ? 1 : transactions.length;
+        }
+
+        @Override
+        public int[] getTransactions() {
+            checkLive();
+            int[] transactions = transactionsAt(index);
+            return transactions == null ? new int[] {getAmount()} : transactions.clone();
+        }
+
+        @Override
+        public long getNonce() {
+            checkLive();
+            return segmentOf(index).nonces[index & SEGMENT_MASK];
+        }
+
+        @Override
+        public int getDifficulty() {
+            checkLive();
+            return difficultyAt(index);
+        }
+
+        @Override
+        public boolean hasValidHash() {
+            checkLive();
+            return hasValidHashAt(index);
+        }
+
+        @Override
+        public Hash getPrevHash() {
+            checkLive();
+            return (index == 0 && firstPrevNull) ? null : hashAt(index, 0);
+        }
+
+        @Override
+        public Hash getHash() {
+            checkLive();
+            return hashAt(index, HASH_BYTES);
+        }
+    }
+}
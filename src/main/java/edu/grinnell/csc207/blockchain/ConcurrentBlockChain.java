@@ -0,0 +1,317 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A BlockChain that many threads can mine on, append to and read at once
+ * without locks. The chain is an immutable linked list of nodes from the
+ * last block back to the first, and the only mutable state is a reference
+ * to the last node. Appending or removing a block swaps that reference with
+ * a compare-and-set, so when several miners extend the same parent, the
+ * first to append wins and the others are told their parent is gone.
+ *
+ * <p>Each node records Alice's balance, computed once when the node is made
+ * from its parent's. A block that would take the balance out of range is
+ * rejected inside the compare-and-set loop, against the very parent it is
+ * swapped in after, so no invalid chain is ever published. A reader that
+ * loads the last node therefore sees the size, hash and balances of one
+ * consistent, valid chain in constant time, however the chain changes
+ * meanwhile.
+ *
+ * <p>Unlike BlockChain, the difficulty is fixed and blocks are looked up by
+ * walking back from the last block.
+ */
+public class ConcurrentBlockChain {
+
+    /**
+     * One block of the chain and the state of the chain that ends with it.
+     */
+    private static final class Node {
+
+        private final Block block;
+        private final Node prev;
+        private final int size;
+        private final int aliceBalance;
+
+        /**
+         * Instantiates the node of the first block.
+         *
+         * @param block the first block
+         */
+        Node(Block block) {
+            this.block = block;
+            this.prev = null;
+            this.size = 1;
+            this.aliceBalance = block.getAmount();
+        }
+
+        /**
+         * Instantiates the node of a block that extends prev.
+         *
+         * @param block the new last block
+         * @param prev the node of its parent
+         * @param aliceBalance Alice's balance after the block
+         */
+        Node(Block block, Node prev, int aliceBalance) {
+            this.block = block;
+            this.prev = prev;
+            this.size = prev.size + 1;
+            this.aliceBalance = aliceBalance;
+        }
+    }
+
+    private final AtomicReference<Node> last;
+    private final int initial;
+    private final int difficulty;
+    private final HashEngine hashEngine;
+
+    /**
+     * Initialize first block in chain, requiring the given number of leading
+     * zero bits in every block's hash and mining with the given hash engine.
+     *
+     * @param initial the initial amount
+     * @param difficulty the number of leading zero bits required
+     * @param hashEngine the hash engine used to mine blocks
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public ConcurrentBlockChain(int initial, int difficulty, HashEngine hashEngine)
+            throws NoSuchAlgorithmException {
+        this.initial = initial;
+        this.difficulty = Hash.checkDifficulty(difficulty);
+        this.hashEngine = hashEngine;
+        this.last = new AtomicReference<>(
+                new Node(new Block(0, initial, null, hashEngine, difficulty))
+        );
+    }
+
+    /**
+     * Mines a new candidate block on the current last block. Nothing is
+     * changed, so any number of threads may mine at once.
+     *
+     * @param amount the amount to transfer
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block mine(int amount) throws NoSuchAlgorithmException {
+        Node parent = last.get();
+        return new Block(parent.size, amount, parent.block.getHash(), hashEngine, difficulty);
+    }
+
+    /**
+     * Adds a block if it extends the current last block. A block mined on a
+     * parent that another block has since extended or that has been removed
+     * is not added.
+     *
+     * @param blk the block to append
+     * @return true if the block was added, false if its parent is no longer
+     *     the last block
+     * @throws IllegalArgumentException if the block has the wrong difficulty
+     *     or an invalid hash, or takes Alice's balance below zero or above
+     *     the initial amount after any of its transactions
+     */
+    public boolean append(Block blk) {
+        if (blk.getDifficulty() != difficulty || !blk.hasValidHash() || blk.getPrevHash() == null) {
+            throw new IllegalArgumentException("Block is not valid");
+        }
+        Node parent = last.get();
+        while (blk.getNum() == parent.size && blk.getPrevHash().equals(parent.block.getHash())) {
+            int balance = balanceAfter(blk, parent.aliceBalance);
+            if (last.compareAndSet(parent, new Node(blk, parent, balance))) {
+                return true;
+            }
+            parent = last.get();
+        }
+        return false;
+    }
+
+    /**
+     * Returns Alice's balance after a block, checking it after each of its
+     * transactions.
+     *
+     * @param blk the block
+     * @param balance Alice's balance before it
+     * @return Alice's balance after it
+     * @throws IllegalArgumentException if the balance leaves the range from
+     *     zero to the initial amount
+     */
+    private int balanceAfter(Block blk, int balance) {
+        for (int amount : blk.getTransactions()) {
+            balance += amount;
+            if (balance < 0 || balance > initial) {
+                throw new IllegalArgumentException("Block overdraws Alice's balance");
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * Removes the last block from the chain, returning true. If the chain only
+     * contains a single block, then removeLast does nothing and returns false.
+     *
+     * @return true if a block was removed, false otherwise
+     */
+    public boolean removeLast() {
+        while (true) {
+            Node tail = last.get();
+            if (tail.prev == null) {
+                return false;
+            }
+            if (last.compareAndSet(tail, tail.prev)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the blockchain.
+     *
+     * @return number of blocks in the chain
+     */
+    public int getSize() {
+        return last.get().size;
+    }
+
+    /**
+     * Returns the number of leading zero bits every block needs.
+     *
+     * @return the difficulty
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Returns the hash of the last block in the chain.
+     *
+     * @return hash of the last block
+     */
+    public Hash getHash() {
+        return last.get().block.getHash();
+    }
+
+    /**
+     * Returns the block at the given position in the chain, walking back
+     * from the last block.
+     *
+     * @param index the index of the block, where 0 is the first block
+     * @return the block at the index
+     * @throws IndexOutOfBoundsException if the index is not in the chain
+     */
+    public Block getBlock(int index) {
+        Node node = last.get();
+        if (index < 0 || index >= node.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + node.size);
+        }
+        while (node.size > index + 1) {
+            node = node.prev;
+        }
+        return node.block;
+    }
+
+    /**
+     * Returns the blocks of the chain as it is at one instant.
+     *
+     * @return an unmodifiable list of the blocks in chain order
+     */
+    public List<Block> snapshot() {
+        Node node = last.get();
+        Block[] blocks = new Block[node.size];
+        for (; node != null; node = node.prev) {
+            blocks[node.size - 1] = node.block;
+        }
+        return List.copyOf(Arrays.asList(blocks));
+    }
+
+    /**
+     * Returns true if the chain, as it is at one instant, is valid: every
+     * block has its index as its number, links to the one before it and
+     * meets the difficulty, and Alice's balance starts at the initial amount
+     * and stays between zero and it after each transaction. The balance each
+     * node recorded when it was appended must match the one rebuilt here.
+     *
+     * @return true if valid, false otherwise
+     */
+    public boolean isValidBlockChain() {
+        Node node = last.get();
+        Node[] nodes = new Node[node.size];
+        for (; node != null; node = node.prev) {
+            nodes[node.size - 1] = node;
+        }
+
+        int balance = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            Block curr = nodes[i].block;
+            boolean linked = (i == 0)
+                    ? curr.getPrevHash() == null && curr.getAmount() == initial
+                    : nodes[i - 1].block.getHash().equals(curr.getPrevHash());
+            if (!linked
+                    || curr.getNum() != i
+                    || curr.getDifficulty() != difficulty
+                    || !curr.hasValidHash()) {
+                return false;
+            }
+            for (int amount : curr.getTransactions()) {
+                balance += amount;
+                if (balance < 0 || balance > initial) {
+                    return false;
+                }
+            }
+            if (balance != nodes[i].aliceBalance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns Alice's balance: the initial amount plus every transfer.
+     *
+     * @return Alice's balance
+     */
+    public int getAliceBalance() {
+        return last.get().aliceBalance;
+    }
+
+    /**
+     * Returns Bob's balance: the negation of every transfer after the first
+     * block.
+     *
+     * @return Bob's balance
+     */
+    public int getBobBalance() {
+        return initial - last.get().aliceBalance;
+    }
+
+    /**
+     * Prints Alice's and Bob's respective balances, both taken from the same
+     * chain, in the form: Alice: &lt;amt&gt;, Bob: &lt;amt&gt;
+     */
+    public void printBalances() {
+        int alice = getAliceBalance();
+        System.out.println(String.format("Alice: %d, Bob: %d\n", alice, initial - alice));
+    }
+
+    /**
+     * Returns a string representation of the chain at one instant.
+     *
+     * @return formatted string of each block, one per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        ChainRenderer renderer = new ChainRenderer(sb);
+        try {
+            for (Block blk : snapshot()) {
+                renderer.renderBlock(blk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+}
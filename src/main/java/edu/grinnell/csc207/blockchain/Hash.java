@@ -1,32 +1,143 @@
 package edu.grinnell.csc207.blockchain;
 
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * A wrapper class over a hash value (a byte array).
+ * An immutable SHA-256 hash value, held as four big-endian 64-bit words.
  */
-public class Hash {
+public final class Hash {
 
-    byte[] hashData;
+    /**
+     * The number of bytes in a hash.
+     */
+    public static final int SIZE = 32;
+
+    /**
+     * The number of leading zero bits a hash needs by default: the first three
+     * bytes.
+     */
+    public static final int DEFAULT_DIFFICULTY = 24;
+
+    /**
+     * The largest possible difficulty: every bit of a SHA-256 hash is zero.
+     */
+    public static final int MAX_DIFFICULTY = 256;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+    private String hex;
 
     /**
      * Constructor which initializes data into object.
      *
-     * @param data the byte array representing the hash
-     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @param data the 32 bytes of the hash, which are copied
+     * @throws IllegalArgumentException if data is not 32 bytes long
+     */
+    public Hash(byte[] data) {
+        if (data.length != SIZE) {
+            throw new IllegalArgumentException("A hash is " + SIZE + " bytes, not " + data.length);
+        }
+        word0 = (long) LONGS.get(data, 0);
+        word1 = (long) LONGS.get(data, Long.BYTES);
+        word2 = (long) LONGS.get(data, 2 * Long.BYTES);
+        word3 = (long) LONGS.get(data, 3 * Long.BYTES);
+    }
+
+    /**
+     * Instantiates Hash from its big-endian words.
+     *
+     * @param word0 the first eight bytes
+     * @param word1 the next eight bytes
+     * @param word2 the next eight bytes
+     * @param word3 the last eight bytes
+     */
+    public Hash(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+    }
+
+    /**
+     * Reads a hash from 32 bytes of a big-endian buffer, without copying
+     * them through an array.
+     *
+     * @param buffer the buffer to read from
+     * @param offset the index of the first byte of the hash
+     * @return the hash
      */
-    public Hash(byte[] data) throws NoSuchAlgorithmException {
-        hashData = data;
+    public static Hash read(ByteBuffer buffer, int offset) {
+        return new Hash(
+                buffer.getLong(offset),
+                buffer.getLong(offset + Long.BYTES),
+                buffer.getLong(offset + 2 * Long.BYTES),
+                buffer.getLong(offset + 3 * Long.BYTES)
+        );
     }
 
     /**
-     * Returns the hash contained in the object as an array of bytes.
+     * Writes the hash into 32 bytes of a big-endian buffer, without copying
+     * it through an array.
      *
-     * @return the raw byte array of the hash
+     * @param buffer the buffer to write to
+     * @param offset the index of the first byte of the hash
+     */
+    public void writeTo(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, word0);
+        buffer.putLong(offset + Long.BYTES, word1);
+        buffer.putLong(offset + 2 * Long.BYTES, word2);
+        buffer.putLong(offset + 3 * Long.BYTES, word3);
+    }
+
+    /**
+     * Returns the hash as a new array of bytes.
+     *
+     * @return the raw bytes of the hash
      */
     public byte[] getData() {
-        return hashData;
+        byte[] data = new byte[SIZE];
+        LONGS.set(data, 0, word0);
+        LONGS.set(data, Long.BYTES, word1);
+        LONGS.set(data, 2 * Long.BYTES, word2);
+        LONGS.set(data, 3 * Long.BYTES, word3);
+        return data;
+    }
+
+    /**
+     * Returns one of the hash's big-endian 64-bit words.
+     *
+     * @param index the index of the word, from 0 to 3
+     * @return the word
+     */
+    public long getWord(int index) {
+        return switch (index) {
+            case 0 -> word0;
+            case 1 -> word1;
+            case 2 -> word2;
+            case 3 -> word3;
+            default -> throw new IndexOutOfBoundsException("Word " + index + " of 4");
+        };
+    }
+
+    /**
+     * Returns one byte of the hash.
+     *
+     * @param index the index of the byte, from 0 to 31
+     * @return the byte as an unsigned value
+     */
+    private int byteAt(int index) {
+        long word = getWord(index / Long.BYTES);
+        return (int) (word >>> (Long.SIZE - Byte.SIZE * (index % Long.BYTES + 1))) & 0xff;
     }
 
     /**
@@ -36,36 +147,148 @@ public class Hash {
      * @return true if hash is valid, false otherwise
      */
     public boolean isValid() {
-        byte[] hashStore = getData();
+        return isValid(DEFAULT_DIFFICULTY);
+    }
 
-        //length is not at least 3
-        if (hashStore.length < 3) {
+    /**
+     * Returns true if the hash starts with at least the given number of zero
+     * bits.
+     *
+     * @param difficulty the number of leading zero bits required
+     * @return true if hash is valid, false otherwise
+     */
+    public boolean isValid(int difficulty) {
+        return leadingZeros() >= difficulty;
+    }
+
+    /**
+     * Returns the number of leading zero bits of the hash.
+     *
+     * @return the number of leading zero bits, up to 256
+     */
+    public int leadingZeros() {
+        if (word0 != 0) {
+            return Long.numberOfLeadingZeros(word0);
+        }
+        if (word1 != 0) {
+            return Long.SIZE + Long.numberOfLeadingZeros(word1);
+        }
+        if (word2 != 0) {
+            return 2 * Long.SIZE + Long.numberOfLeadingZeros(word2);
+        }
+        return 3 * Long.SIZE + Long.numberOfLeadingZeros(word3);
+    }
+
+    /**
+     * Returns true if the digest starts with at least the given number of zero
+     * bits, comparing whole 64-bit words rather than single bytes.
+     *
+     * @param digest the raw digest bytes
+     * @param difficulty the number of leading zero bits required
+     * @return true if the digest meets the difficulty, false otherwise
+     */
+    static boolean meetsDifficulty(byte[] digest, int difficulty) {
+        if (difficulty > digest.length * Byte.SIZE) {
             return false;
         }
-        for (int i = 0; i < 3; i++) {
-            if (hashStore[i] != 0) {
+
+        int offset = 0;
+        int bits = difficulty;
+        for (; bits >= Long.SIZE; bits -= Long.SIZE, offset += Long.BYTES) {
+            if ((long) LONGS.get(digest, offset) != 0) {
+                return false;
+            }
+        }
+        if (bits == 0) {
+            return true;
+        }
+        if (offset + Long.BYTES <= digest.length) {
+            return ((long) LONGS.get(digest, offset) >>> (Long.SIZE - bits)) == 0;
+        }
+
+        // Fewer than eight bytes left, only possible for non-SHA-256 data.
+        for (; bits >= Byte.SIZE; bits -= Byte.SIZE, offset++) {
+            if (digest[offset] != 0) {
+                return false;
+            }
+        }
+        return bits == 0 || (Byte.toUnsignedInt(digest[offset]) >>> (Byte.SIZE - bits)) == 0;
+    }
+
+    /**
+     * Returns true if the 32-byte digest stored in the buffer at the given
+     * offset starts with at least the given number of zero bits.
+     *
+     * @param buffer a big-endian buffer holding the digest
+     * @param offset the index of the first digest byte
+     * @param difficulty the number of leading zero bits required
+     * @return true if the digest meets the difficulty, false otherwise
+     */
+    static boolean meetsDifficulty(ByteBuffer buffer, int offset, int difficulty) {
+        int position = offset;
+        int bits = difficulty;
+        for (; bits >= Long.SIZE; bits -= Long.SIZE, position += Long.BYTES) {
+            if (buffer.getLong(position) != 0) {
+                return false;
+            }
+        }
+        return bits == 0 || (buffer.getLong(position) >>> (Long.SIZE - bits)) == 0;
+    }
+
+    /**
+     * Returns true if the digest, given as big-endian 32-bit words, starts
+     * with at least the given number of zero bits.
+     *
+     * @param words the digest words
+     * @param difficulty the number of leading zero bits required
+     * @return true if the digest meets the difficulty, false otherwise
+     */
+    static boolean meetsDifficulty(int[] words, int difficulty) {
+        int i = 0;
+        int bits = difficulty;
+        for (; bits >= Integer.SIZE; bits -= Integer.SIZE) {
+            if (words[i++] != 0) {
                 return false;
             }
         }
-        return true;
+        return bits == 0 || (words[i] >>> (Integer.SIZE - bits)) == 0;
     }
 
     /**
-     * Returns a string representation of the hash in hexadecimal.
+     * Checks that a difficulty is between zero and MAX_DIFFICULTY.
+     *
+     * @param difficulty the number of leading zero bits
+     * @return the difficulty
+     */
+    static int checkDifficulty(int difficulty) {
+        if (difficulty < 0 || difficulty > MAX_DIFFICULTY) {
+            throw new IllegalArgumentException(
+                    "Difficulty must be between 0 and " + MAX_DIFFICULTY + " bits"
+            );
+        }
+        return difficulty;
+    }
+
+    /**
+     * Returns a string representation of the hash in hexadecimal, two digits
+     * per byte. The string is built once and cached.
      *
      * @return a hex string representation of the hash
      */
     @Override
     public String toString() {
-        byte[] hashStore = getData();
-
-        // Credit: https://stackoverflow.com/a/2817883
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < hashStore.length; i++) {
-            sb.append(String.format("%x", Byte.toUnsignedInt(hashStore[i])));
+        String result = hex;
+        if (result == null) {
+            char[] digits = new char[2 * SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                int b = byteAt(i);
+                digits[2 * i] = HEX_DIGITS[b >>> 4];
+                digits[2 * i + 1] = HEX_DIGITS[b & 0xf];
+            }
+            result = new String(digits);
+            hex = result;
         }
-
-        return sb.toString();
+        return result;
     }
 
     /**
@@ -81,6 +304,17 @@ public class Hash {
         }
 
         Hash o = (Hash) other;
-        return Arrays.equals(o.getData(), getData());
+        return word0 == o.word0 && word1 == o.word1 && word2 == o.word2 && word3 == o.word3;
+    }
+
+    /**
+     * Returns a hash code consistent with equals. The words of a SHA-256 hash
+     * are already uniformly distributed, so folding them together is enough.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(word0 ^ word1 ^ word2 ^ word3);
     }
 }
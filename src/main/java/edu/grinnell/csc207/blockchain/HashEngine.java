@@ -0,0 +1,99 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A source of SHA-256 block hashing. A block header is a sequence of
+ * big-endian 32-bit words followed by the 64-bit nonce; an engine turns the
+ * words before the nonce into a MiningEngine that hashes the header for any
+ * nonce.
+ */
+@FunctionalInterface
+public interface HashEngine {
+
+    /**
+     * Hashes through the JCA MessageDigest. This is the default engine.
+     */
+    HashEngine JCA = JcaMiningEngine::new;
+
+    /**
+     * Hashes with a pure-Java SHA-256 kernel specialized for single-block
+     * headers.
+     */
+    HashEngine SHA256 = Sha256MiningEngine::new;
+
+    /**
+     * Returns an engine that hashes several consecutive nonces at once in SIMD
+     * lanes through the incubating JDK Vector API. The engine is only built
+     * with the vector profile, and the jdk.incubator.vector module must be
+     * present at runtime (it must be added with --add-modules); without
+     * either, the scalar SHA256 engine is returned instead.
+     *
+     * @param lanes the number of nonces hashed at once: 4, 8 or 16
+     * @return a vector hash engine, or SHA256 if the Vector API is missing
+     */
+    static HashEngine vector(int lanes) {
+        if (lanes != 4 && lanes != 8 && lanes != 16) {
+            throw new IllegalArgumentException("Lanes must be 4, 8 or 16");
+        }
+        MethodHandle create = vectorEngineFactory();
+        if (create == null) {
+            return SHA256;
+        }
+        return (headerPrefix, difficulty) -> {
+            try {
+                return (MiningEngine) create.invokeExact(headerPrefix, difficulty, lanes);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot create a vector engine", e);
+            }
+        };
+    }
+
+    /**
+     * Returns true if the vector engine was built and the incubating Vector
+     * API module is present.
+     *
+     * @return true if the Vector API can be used, false otherwise
+     */
+    static boolean isVectorApiAvailable() {
+        return vectorEngineFactory() != null;
+    }
+
+    /**
+     * Looks up VectorMiningEngine.create. The class is only loaded here, and
+     * only once the module is known to be present, so a build without it
+     * never touches the Vector API.
+     *
+     * @return a handle to the factory, or null if the engine cannot be used
+     */
+    private static MethodHandle vectorEngineFactory() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return MethodHandles.lookup().findStatic(
+                    Class.forName(HashEngine.class.getPackageName() + ".VectorMiningEngine"),
+                    "create",
+                    MethodType.methodType(MiningEngine.class, int[].class, int.class, int.class)
+            );
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a mining engine for the header with the given prefix.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits a valid hash needs
+     * @return a new mining engine for the header
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    MiningEngine newMiningEngine(int[] headerPrefix, int difficulty)
+            throws NoSuchAlgorithmException;
+}
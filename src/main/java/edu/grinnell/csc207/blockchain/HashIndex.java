@@ -0,0 +1,167 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * An open-addressing table from block hashes to block indices. Each slot
+ * holds one 64-bit word of the hash as its key and the block's index, and
+ * collisions are resolved by linear probing. Keys are only part of a hash,
+ * so a matching key is confirmed by comparing the full hash of the block in
+ * the store.
+ *
+ * <p>The key is the last word of the hash rather than the first: proof of
+ * work forces the leading bits of every block hash to zero, so the first
+ * word carries fewer random bits, and none at all from a difficulty of 64.
+ */
+class HashIndex {
+
+    private static final int MIN_CAPACITY = 1 << 4;
+    private static final long FIBONACCI = 0x9e3779b97f4a7c15L;
+
+    private long[] keys;
+    private int[] indices;
+    private int size;
+    private int shift;
+
+    /**
+     * Instantiates an empty HashIndex.
+     */
+    HashIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the number of hashes in the index.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a block's hash.
+     *
+     * @param hash the hash of the block
+     * @param index the index of the block in the store
+     */
+    void add(Hash hash, int index) {
+        if (4L * (size + 1) > 3L * keys.length) {
+            grow();
+        }
+        insert(keyOf(hash), index);
+        size++;
+    }
+
+    /**
+     * Returns the index of the block with the given hash.
+     *
+     * @param hash the hash to find
+     * @param store the store holding the indexed blocks
+     * @return the index of the block, or -1 if no block has the hash
+     */
+    int indexOf(Hash hash, BlockStore store) {
+        long key = keyOf(hash);
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key); indices[slot] != 0; slot = (slot + 1) & mask) {
+            int index = indices[slot] - 1;
+            if (keys[slot] == key && store.get(index).getHash().equals(hash)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a block's hash. Later entries of the probe run are shifted back
+     * so that lookups never stop early at the freed slot.
+     *
+     * @param hash the hash of the block
+     * @param index the index of the block in the store
+     */
+    void remove(Hash hash, int index) {
+        long key = keyOf(hash);
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        while (indices[slot] != index + 1) {
+            if (indices[slot] == 0) {
+                throw new IllegalStateException("Block " + index + " is not indexed");
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int hole = slot;
+        for (int next = (hole + 1) & mask; indices[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            // Move the entry back unless its home lies cyclically in (hole, next].
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                indices[hole] = indices[next];
+                hole = next;
+            }
+        }
+        keys[hole] = 0;
+        indices[hole] = 0;
+        size--;
+    }
+
+    /**
+     * Puts an entry in the first free slot of its probe run.
+     *
+     * @param key the key of the hash
+     * @param index the index of the block
+     */
+    private void insert(long key, int index) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        while (indices[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        indices[slot] = index + 1;
+    }
+
+    /**
+     * Doubles the table and reinserts every entry.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldIndices = indices;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndices[i] != 0) {
+                insert(oldKeys[i], oldIndices[i] - 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces the table with an empty one.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        indices = new int[capacity];
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Returns the home slot of a key, taken from the high bits of a
+     * multiplicative hash so that every bit of the key counts.
+     *
+     * @param key the key
+     * @return the slot
+     */
+    private int slotOf(long key) {
+        return (int) ((key * FIBONACCI) >>> shift);
+    }
+
+    /**
+     * Returns the key of a hash.
+     *
+     * @param hash the hash
+     * @return its last word
+     */
+    private static long keyOf(Hash hash) {
+        return hash.getWord(3);
+    }
+}
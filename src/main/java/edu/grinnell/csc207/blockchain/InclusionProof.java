@@ -0,0 +1,162 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A proof that a block hash is the leaf at a given index of a
+ * MerkleMountainRange of a given size. It holds the siblings on the path
+ * from the leaf up to the peak of its mountain, lowest first, and the peaks
+ * of the other mountains from left to right. A proof is checked with
+ * MerkleMountainRange.verify, which needs only the root it should lead to.
+ *
+ * <p>A proof travels as bytes from toBytes to fromBytes: the leaf index, the
+ * leaf count, the length of the path and the number of other peaks as
+ * big-endian ints, then the path and the other peaks, 32 bytes each.
+ */
+public final class InclusionProof {
+
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    // A range of at most 2^31 - 1 leaves has mountains below 31 levels and
+    // at most 31 peaks.
+    private static final int MAX_HASHES = Integer.SIZE - 1;
+
+    private final int index;
+    private final int leafCount;
+    private final Hash[] path;
+    private final Hash[] otherPeaks;
+
+    /**
+     * Instantiates InclusionProof.
+     *
+     * @param index the index of the leaf
+     * @param leafCount the number of leaves the range had
+     * @param path the siblings from the leaf up to its peak, lowest first;
+     *     not copied
+     * @param otherPeaks the peaks of the other mountains, left to right; not
+     *     copied
+     */
+    InclusionProof(int index, int leafCount, Hash[] path, Hash[] otherPeaks) {
+        this.index = index;
+        this.leafCount = leafCount;
+        this.path = path;
+        this.otherPeaks = otherPeaks;
+    }
+
+    /**
+     * Encodes the proof as bytes.
+     *
+     * @return a new array holding the proof
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size() * Hash.SIZE);
+        buffer.putInt(index).putInt(leafCount).putInt(path.length).putInt(otherPeaks.length);
+        for (Hash hash : path) {
+            hash.writeTo(buffer, buffer.position());
+            buffer.position(buffer.position() + Hash.SIZE);
+        }
+        for (Hash hash : otherPeaks) {
+            hash.writeTo(buffer, buffer.position());
+            buffer.position(buffer.position() + Hash.SIZE);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a proof written by toBytes. Decoding only checks the layout;
+     * whether the proof holds is for MerkleMountainRange.verify to say.
+     *
+     * @param bytes the encoded proof
+     * @return the proof
+     * @throws IllegalArgumentException if the bytes are not an encoded proof
+     */
+    public static InclusionProof fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not an inclusion proof");
+        }
+        int index = buffer.getInt();
+        int leafCount = buffer.getInt();
+        int pathLength = buffer.getInt();
+        int otherPeakCount = buffer.getInt();
+        if (pathLength < 0 || pathLength > MAX_HASHES
+                || otherPeakCount < 0 || otherPeakCount > MAX_HASHES
+                || bytes.length != HEADER_SIZE + (pathLength + otherPeakCount) * Hash.SIZE) {
+            throw new IllegalArgumentException("Not an inclusion proof");
+        }
+        Hash[] path = new Hash[pathLength];
+        for (int i = 0; i < pathLength; i++) {
+            path[i] = Hash.read(buffer, HEADER_SIZE + i * Hash.SIZE);
+        }
+        Hash[] otherPeaks = new Hash[otherPeakCount];
+        for (int i = 0; i < otherPeakCount; i++) {
+            otherPeaks[i] = Hash.read(buffer, HEADER_SIZE + (pathLength + i) * Hash.SIZE);
+        }
+        return new InclusionProof(index, leafCount, path, otherPeaks);
+    }
+
+    /**
+     * Returns the index of the leaf, which is the number of its block.
+     *
+     * @return the leaf index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of leaves the range had when the proof was made,
+     * which is the size of the chain.
+     *
+     * @return the number of leaves
+     */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Returns the number of hashes in the proof.
+     *
+     * @return the length of the path plus the number of other peaks
+     */
+    public int size() {
+        return path.length + otherPeaks.length;
+    }
+
+    /**
+     * Returns a sibling on the path from the leaf to its peak.
+     *
+     * @param level the level of the sibling, 0 for the leaf's own
+     * @return the sibling hash
+     */
+    Hash pathAt(int level) {
+        return path[level];
+    }
+
+    /**
+     * Returns the number of siblings on the path.
+     *
+     * @return the height of the leaf's mountain
+     */
+    int pathLength() {
+        return path.length;
+    }
+
+    /**
+     * Returns the peak of another mountain.
+     *
+     * @param i the position among the other peaks, left to right
+     * @return the peak hash
+     */
+    Hash otherPeakAt(int i) {
+        return otherPeaks[i];
+    }
+
+    /**
+     * Returns the number of other mountains.
+     *
+     * @return the number of other peaks
+     */
+    int otherPeakCount() {
+        return otherPeaks.length;
+    }
+}
@@ -0,0 +1,86 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A mining engine backed by the JCA MessageDigest. The header prefix is
+ * written into a byte array once; each attempt only overwrites the trailing
+ * nonce bytes and digests into a reused buffer, so testing a nonce allocates
+ * nothing.
+ */
+class JcaMiningEngine extends MiningEngine {
+
+    private final MessageDigest md;
+    private byte[] header;
+    private int nonceOffset;
+    private final byte[] digest;
+
+    /**
+     * Instantiates JcaMiningEngine.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits a valid hash needs
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    JcaMiningEngine(int[] headerPrefix, int difficulty) throws NoSuchAlgorithmException {
+        super(difficulty);
+        this.md = MessageDigest.getInstance("sha-256");
+        this.digest = new byte[HASH_SIZE];
+        setHeader(headerPrefix);
+    }
+
+    @Override
+    final void setHeader(int[] headerPrefix) {
+        int offset = headerPrefix.length * (Integer.SIZE / 8);
+        if (header == null || offset != nonceOffset) {
+            nonceOffset = offset;
+            header = new byte[nonceOffset + NONCE_SIZE];
+        }
+        for (int i = 0; i < headerPrefix.length; i++) {
+            putInt(i * (Integer.SIZE / 8), headerPrefix[i]);
+        }
+    }
+
+    @Override
+    public boolean tryNonce(long nonce) {
+        digest(nonce);
+        return Hash.meetsDifficulty(digest, difficulty);
+    }
+
+    @Override
+    public Hash hashOf(long nonce) throws NoSuchAlgorithmException {
+        digest(nonce);
+        return new Hash(digest);
+    }
+
+    /**
+     * Writes the nonce into the header and digests it into the reused buffer.
+     *
+     * @param nonce the nonce to hash with
+     */
+    private void digest(long nonce) {
+        putInt(nonceOffset, (int) (nonce >>> 32));
+        putInt(nonceOffset + 4, (int) nonce);
+        md.update(header, 0, header.length);
+        try {
+            md.digest(digest, 0, HASH_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256 digest failed", e);
+        }
+    }
+
+    /**
+     * Writes a big-endian int into the header.
+     *
+     * @param offset the index of the first byte
+     * @param value the value to write
+     */
+    private void putInt(int offset, int value) {
+        header[offset] = (byte) (value >>> 24);
+        header[offset + 1] = (byte) (value >>> 16);
+        header[offset + 2] = (byte) (value >>> 8);
+        header[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Bucket b counts the
+ * durations whose highest set bit is bit b, so percentiles are accurate to
+ * within a factor of two while recording costs a few atomic adds.
+ */
+class LatencyHistogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        long clamped = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(clamped));
+        count.increment();
+        totalNanos.add(clamped);
+        maxNanos.accumulateAndGet(clamped, Math::max);
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the count
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the durations recorded.
+     *
+     * @return the total in nanoseconds
+     */
+    long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Copies the current state. Recording may continue concurrently, so the
+     * copy is only approximately consistent.
+     *
+     * @return the snapshot
+     */
+    LatencySnapshot snapshot() {
+        long[] counts = new long[Long.SIZE];
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] = buckets.get(b);
+        }
+        return new LatencySnapshot(count.sum(), totalNanos.sum(), maxNanos.get(), counts);
+    }
+
+    /**
+     * Forgets every duration recorded.
+     */
+    void reset() {
+        for (int b = 0; b < buckets.length(); b++) {
+            buckets.set(b, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /**
+     * Returns the bucket of a duration.
+     *
+     * @param nanos the non-negative duration
+     * @return the index of its highest set bit, or 0 for zero
+     */
+    static int bucketOf(long nanos) {
+        return nanos == 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+    }
+}
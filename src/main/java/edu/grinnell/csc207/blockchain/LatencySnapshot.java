@@ -0,0 +1,107 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * A copy of a latency histogram at one moment. JMX shows it as composite
+ * data with an attribute per getter.
+ */
+public class LatencySnapshot {
+
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+
+    /**
+     * Instantiates LatencySnapshot.
+     *
+     * @param count the number of durations recorded
+     * @param totalNanos the sum of the durations
+     * @param maxNanos the longest duration
+     * @param buckets the counts per power-of-two bucket; not copied
+     */
+    LatencySnapshot(long count, long totalNanos, long maxNanos, long[] buckets) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean duration.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Returns the longest duration.
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the median duration, rounded up to its bucket's bound.
+     *
+     * @return the 50th percentile in nanoseconds
+     */
+    public long getP50Nanos() {
+        return percentile(0.5);
+    }
+
+    /**
+     * Returns the 99th percentile duration, rounded up to its bucket's bound.
+     *
+     * @return the 99th percentile in nanoseconds
+     */
+    public long getP99Nanos() {
+        return percentile(0.99);
+    }
+
+    /**
+     * Returns the counts per bucket, where bucket b holds the durations from
+     * 2^b to 2^(b+1) - 1 nanoseconds.
+     *
+     * @return a copy of the bucket counts
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding a percentile, capped at
+     * the maximum.
+     *
+     * @param quantile the fraction of durations at or below the result
+     * @return the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    private long percentile(double quantile) {
+        long total = 0;
+        for (long c : buckets) {
+            total += c;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b];
+            if (seen >= rank && seen > 0) {
+                long bound = b == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << (b + 1)) - 1;
+                return Math.min(bound, maxNanos);
+            }
+        }
+        return 0;
+    }
+}
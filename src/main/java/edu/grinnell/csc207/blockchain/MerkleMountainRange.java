@@ -0,0 +1,291 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A Merkle Mountain Range over block hashes: a list of perfect Merkle trees,
+ * the mountains, one for each set bit of the number of leaves, from the
+ * largest on the left to the smallest on the right. Appending a leaf merges
+ * the mountains it completes, which takes one hash per trailing one bit of
+ * the old leaf count, so O(log n) at worst and two hashes on average.
+ * Removing the last leaf drops it and the parents it made from the end of
+ * the node list in O(1), since nodes are kept in post-order.
+ *
+ * <p>The root bags the peaks from right to left, each peak hashed with the
+ * bag of the peaks to its right. Leaves and nodes are hashed as in
+ * MerkleTree, with distinct prefixes. Nodes are packed four longs to a hash,
+ * so the range takes about 64 bytes per leaf. A MerkleMountainRange is not
+ * safe for use by several threads at once.
+ */
+public class MerkleMountainRange {
+
+    private static final int WORDS = 4;
+    private static final int INITIAL_CAPACITY = 1 << 6;
+
+    private final MessageDigest md;
+    private final byte[] buffer = new byte[1 + 2 * Hash.SIZE];
+    private long[] nodes = new long[INITIAL_CAPACITY * WORDS];
+    private int nodeCount;
+    private int leafCount;
+
+    /**
+     * Instantiates an empty MerkleMountainRange.
+     *
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public MerkleMountainRange() throws NoSuchAlgorithmException {
+        md = MessageDigest.getInstance("SHA-256");
+    }
+
+    /**
+     * Returns the number of leaves.
+     *
+     * @return the number of leaves
+     */
+    public int size() {
+        return leafCount;
+    }
+
+    /**
+     * Adds a leaf after the last one and merges the mountains it completes.
+     *
+     * @param value the hash to add
+     */
+    public void append(Hash value) {
+        int pos = nodeCount;
+        put(MerkleTree.leafHash(md, buffer, value));
+        for (int height = 0; height < Integer.numberOfTrailingZeros(~leafCount); height++) {
+            int left = pos - subtreeSize(height);
+            put(MerkleTree.nodeHash(md, buffer, nodeAt(left), nodeAt(pos)));
+            pos = nodeCount - 1;
+        }
+        leafCount++;
+    }
+
+    /**
+     * Removes the last leaf and the parents it made.
+     */
+    public void removeLast() {
+        if (leafCount == 0) {
+            throw new IllegalStateException("Range is empty");
+        }
+        leafCount--;
+        nodeCount = nodeCountOf(leafCount);
+    }
+
+    /**
+     * Returns the root: the peaks bagged from right to left.
+     *
+     * @return the root hash
+     * @throws IllegalStateException if the range is empty
+     */
+    public Hash root() {
+        if (leafCount == 0) {
+            throw new IllegalStateException("Range is empty");
+        }
+        Hash[] peaks = peaks();
+        return bag(md, buffer, peaks);
+    }
+
+    /**
+     * Proves that the leaf at an index is in the range as it is now.
+     *
+     * @param index the index of the leaf
+     * @return the proof
+     * @throws IndexOutOfBoundsException if the index is not in the range
+     */
+    public InclusionProof prove(int index) {
+        if (index < 0 || index >= leafCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + leafCount);
+        }
+        int peak = peakOf(index, leafCount);
+        int height = heightOfPeak(peak, leafCount);
+        int offset = index - firstLeafOfPeak(peak, leafCount);
+
+        Hash[] path = new Hash[height];
+        int pos = 2 * index - Integer.bitCount(index);
+        for (int h = 0; h < height; h++) {
+            if ((offset >>> h & 1) == 0) {
+                int sibling = pos + subtreeSize(h);
+                path[h] = nodeAt(sibling);
+                pos = sibling + 1;
+            } else {
+                path[h] = nodeAt(pos - subtreeSize(h));
+                pos = pos + 1;
+            }
+        }
+
+        Hash[] peaks = peaks();
+        Hash[] otherPeaks = new Hash[peaks.length - 1];
+        System.arraycopy(peaks, 0, otherPeaks, 0, peak);
+        System.arraycopy(peaks, peak + 1, otherPeaks, peak, otherPeaks.length - peak);
+        return new InclusionProof(index, leafCount, path, otherPeaks);
+    }
+
+    /**
+     * Checks that a proof leads from a hash to a root, without the range it
+     * came from.
+     *
+     * @param root the root the proof should lead to
+     * @param value the hash the proof is for
+     * @param proof the proof
+     * @return true if the hash is the proof's leaf under the root, false
+     *     otherwise
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public static boolean verify(Hash root, Hash value, InclusionProof proof)
+            throws NoSuchAlgorithmException {
+        int index = proof.getIndex();
+        int leaves = proof.getLeafCount();
+        if (index < 0 || index >= leaves) {
+            return false;
+        }
+        int peak = peakOf(index, leaves);
+        int height = heightOfPeak(peak, leaves);
+        if (proof.pathLength() != height
+                || proof.otherPeakCount() != Integer.bitCount(leaves) - 1) {
+            return false;
+        }
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[1 + 2 * Hash.SIZE];
+        int offset = index - firstLeafOfPeak(peak, leaves);
+        Hash node = MerkleTree.leafHash(md, buffer, value);
+        for (int h = 0; h < height; h++) {
+            node = (offset >>> h & 1) == 0
+                    ? MerkleTree.nodeHash(md, buffer, node, proof.pathAt(h))
+                    : MerkleTree.nodeHash(md, buffer, proof.pathAt(h), node);
+        }
+
+        Hash[] peaks = new Hash[proof.otherPeakCount() + 1];
+        for (int i = 0, j = 0; i < peaks.length; i++) {
+            peaks[i] = i == peak ? node : proof.otherPeakAt(j++);
+        }
+        return bag(md, buffer, peaks).equals(root);
+    }
+
+    /**
+     * Returns the peaks from left to right.
+     *
+     * @return the peak hashes
+     */
+    private Hash[] peaks() {
+        Hash[] peaks = new Hash[Integer.bitCount(leafCount)];
+        int pos = -1;
+        for (int i = 0; i < peaks.length; i++) {
+            pos += subtreeSize(heightOfPeak(i, leafCount));
+            peaks[i] = nodeAt(pos);
+        }
+        return peaks;
+    }
+
+    /**
+     * Bags peaks from right to left.
+     *
+     * @param md a SHA-256 digest to reuse
+     * @param buffer scratch space of at least 65 bytes
+     * @param peaks the peaks, left to right, at least one
+     * @return the root
+     */
+    private static Hash bag(MessageDigest md, byte[] buffer, Hash[] peaks) {
+        Hash root = peaks[peaks.length - 1];
+        for (int i = peaks.length - 2; i >= 0; i--) {
+            root = MerkleTree.nodeHash(md, buffer, peaks[i], root);
+        }
+        return root;
+    }
+
+    /**
+     * Returns the position among the peaks of the mountain holding a leaf.
+     *
+     * @param index the index of the leaf
+     * @param leaves the number of leaves
+     * @return the position of its peak, 0 for the leftmost
+     */
+    private static int peakOf(int index, int leaves) {
+        // The mountains before the leaf's are the set bits of leaves above
+        // the highest bit where the leaf index differs from them.
+        int differing = Integer.highestOneBit(index ^ leaves);
+        return Integer.bitCount(leaves & -(differing << 1));
+    }
+
+    /**
+     * Returns the height of a mountain.
+     *
+     * @param peak the position of its peak, 0 for the leftmost
+     * @param leaves the number of leaves
+     * @return its height, 0 for a single leaf
+     */
+    private static int heightOfPeak(int peak, int leaves) {
+        int bits = leaves;
+        for (int i = 0; i < peak; i++) {
+            bits &= ~Integer.highestOneBit(bits);
+        }
+        return Integer.numberOfTrailingZeros(Integer.highestOneBit(bits));
+    }
+
+    /**
+     * Returns the index of the first leaf of a mountain.
+     *
+     * @param peak the position of its peak, 0 for the leftmost
+     * @param leaves the number of leaves
+     * @return the number of leaves in the mountains to its left
+     */
+    private static int firstLeafOfPeak(int peak, int leaves) {
+        int first = 0;
+        for (int i = 0; i < peak; i++) {
+            int bit = Integer.highestOneBit(leaves & ~first);
+            first |= bit;
+        }
+        return first;
+    }
+
+    /**
+     * Returns the number of nodes in a perfect tree.
+     *
+     * @param height the height of the tree
+     * @return 2^(height + 1) - 1
+     */
+    private static int subtreeSize(int height) {
+        return (2 << height) - 1;
+    }
+
+    /**
+     * Returns the number of nodes in a range of the given number of leaves.
+     *
+     * @param leaves the number of leaves
+     * @return the number of nodes
+     */
+    private static int nodeCountOf(int leaves) {
+        return 2 * leaves - Integer.bitCount(leaves);
+    }
+
+    /**
+     * Returns a node.
+     *
+     * @param pos the position of the node
+     * @return its hash
+     */
+    private Hash nodeAt(int pos) {
+        int i = pos * WORDS;
+        return new Hash(nodes[i], nodes[i + 1], nodes[i + 2], nodes[i + 3]);
+    }
+
+    /**
+     * Adds a node at the end.
+     *
+     * @param hash the node's hash
+     */
+    private void put(Hash hash) {
+        if ((nodeCount + 1) * WORDS > nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        }
+        int i = nodeCount * WORDS;
+        for (int w = 0; w < WORDS; w++) {
+            nodes[i + w] = hash.getWord(w);
+        }
+        nodeCount++;
+    }
+}
@@ -0,0 +1,121 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the Merkle root that a block header commits to in place of its
+ * transactions. Leaves and interior nodes are hashed with different one-byte
+ * prefixes so that a node can never be passed off as a leaf, and a level
+ * with an odd number of nodes carries its last node up unchanged, as in
+ * RFC 6962.
+ */
+public final class MerkleTree {
+
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+
+    /**
+     * Prevents instantiation.
+     */
+    private MerkleTree() {
+    }
+
+    /**
+     * Returns the Merkle root of a batch of transactions.
+     *
+     * @param transactions the amounts transferred, at least one
+     * @return the root hash
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public static Hash root(int[] transactions) throws NoSuchAlgorithmException {
+        if (transactions.length == 0) {
+            throw new IllegalArgumentException("A batch needs at least one transaction");
+        }
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[1 + 2 * Hash.SIZE];
+
+        // Each level is computed in place over the one below it.
+        Hash[] level = new Hash[transactions.length];
+        for (int i = 0; i < transactions.length; i++) {
+            level[i] = leafHash(md, buffer, transactions[i]);
+        }
+        for (int width = level.length; width > 1; width = (width + 1) / 2) {
+            for (int i = 0; i < width / 2; i++) {
+                level[i] = nodeHash(md, buffer, level[2 * i], level[2 * i + 1]);
+            }
+            if (width % 2 == 1) {
+                level[width / 2] = level[width - 1];
+            }
+        }
+        return level[0];
+    }
+
+    /**
+     * Hashes one transaction into a leaf.
+     *
+     * @param md a SHA-256 digest to reuse
+     * @param buffer scratch space of at least 65 bytes
+     * @param amount the amount transferred
+     * @return the leaf hash
+     */
+    static Hash leafHash(MessageDigest md, byte[] buffer, int amount) {
+        buffer[0] = LEAF;
+        buffer[1] = (byte) (amount >>> 24);
+        buffer[2] = (byte) (amount >>> 16);
+        buffer[3] = (byte) (amount >>> 8);
+        buffer[4] = (byte) amount;
+        return digest(md, buffer, 1 + Integer.BYTES);
+    }
+
+    /**
+     * Hashes a block hash into a leaf, as the leaves of a
+     * MerkleMountainRange are.
+     *
+     * @param md a SHA-256 digest to reuse
+     * @param buffer scratch space of at least 65 bytes
+     * @param value the hash to put in the leaf
+     * @return the leaf hash
+     */
+    static Hash leafHash(MessageDigest md, byte[] buffer, Hash value) {
+        buffer[0] = LEAF;
+        System.arraycopy(value.getData(), 0, buffer, 1, Hash.SIZE);
+        return digest(md, buffer, 1 + Hash.SIZE);
+    }
+
+    /**
+     * Hashes two child hashes into their parent.
+     *
+     * @param md a SHA-256 digest to reuse
+     * @param buffer scratch space of at least 65 bytes
+     * @param left the left child
+     * @param right the right child
+     * @return the parent hash
+     */
+    static Hash nodeHash(MessageDigest md, byte[] buffer, Hash left, Hash right) {
+        buffer[0] = NODE;
+        System.arraycopy(left.getData(), 0, buffer, 1, Hash.SIZE);
+        System.arraycopy(right.getData(), 0, buffer, 1 + Hash.SIZE, Hash.SIZE);
+        return digest(md, buffer, 1 + 2 * Hash.SIZE);
+    }
+
+    /**
+     * Digests the start of the buffer.
+     *
+     * @param md a SHA-256 digest to reuse
+     * @param buffer the bytes to digest
+     * @param length the number of bytes to digest
+     * @return the hash
+     */
+    private static Hash digest(MessageDigest md, byte[] buffer, int length) {
+        md.update(buffer, 0, length);
+        byte[] out = new byte[Hash.SIZE];
+        try {
+            md.digest(out, 0, Hash.SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256 digest does not fit", e);
+        }
+        return new Hash(out);
+    }
+}
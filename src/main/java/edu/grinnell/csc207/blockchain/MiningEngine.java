@@ -0,0 +1,88 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A reusable nonce tester for a single block header. The header fields that
+ * never change while mining are prepared once; each attempt only supplies a
+ * new nonce, and a Hash is built only for the nonce the caller asks for. An
+ * engine is not thread-safe, so every mining thread needs its own.
+ */
+public abstract class MiningEngine {
+
+    /**
+     * The size of a SHA-256 hash in bytes.
+     */
+    static final int HASH_SIZE = 32;
+
+    /**
+     * The size of the nonce at the end of the header in bytes.
+     */
+    static final int NONCE_SIZE = Long.SIZE / 8;
+
+    /**
+     * The number of leading zero bits a valid hash needs.
+     */
+    final int difficulty;
+
+    /**
+     * Instantiates MiningEngine.
+     *
+     * @param difficulty the number of leading zero bits a valid hash needs
+     */
+    MiningEngine(int difficulty) {
+        this.difficulty = Hash.checkDifficulty(difficulty);
+    }
+
+    /**
+     * Returns the number of leading zero bits a valid hash needs.
+     *
+     * @return the difficulty
+     */
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Searches the nonces from (inclusive) to to (exclusive) in order and
+     * returns the first one whose hash is valid.
+     *
+     * @param from the first nonce to try
+     * @param to one past the last nonce to try
+     * @return the first valid nonce in the range, or -1 if there is none
+     */
+    public long search(long from, long to) {
+        for (long nonce = from; nonce < to; nonce++) {
+            if (tryNonce(nonce)) {
+                return nonce;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes the header with the given nonce and checks it against the
+     * difficulty without building a Hash.
+     *
+     * @param nonce the nonce to try
+     * @return true if the resulting hash is valid, false otherwise
+     */
+    public abstract boolean tryNonce(long nonce);
+
+    /**
+     * Returns the hash of the header with the given nonce.
+     *
+     * @param nonce the nonce to hash with
+     * @return the hash of the header
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public abstract Hash hashOf(long nonce) throws NoSuchAlgorithmException;
+
+    /**
+     * Prepares the engine for another header of the same difficulty, so that
+     * one engine can hash many blocks in turn.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     */
+    abstract void setHeader(int[] headerPrefix);
+}
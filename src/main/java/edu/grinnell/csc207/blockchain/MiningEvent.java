@@ -0,0 +1,37 @@
+package edu.grinnell.csc207.blockchain;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event spanning the mining of one block, from the start of the nonce
+ * search to the winning nonce. While no recording enables it, creating and
+ * committing the event compiles down to almost nothing.
+ */
+@Name("edu.grinnell.csc207.blockchain.Mining")
+@Label("Block Mining")
+@Category("Blockchain")
+@Description("Mining of one block, from the start of the nonce search to the winning nonce")
+@StackTrace(false)
+class MiningEvent extends Event {
+
+    @Label("Block Number")
+    int num;
+
+    @Label("Difficulty")
+    int difficulty;
+
+    @Label("Transactions")
+    int transactions;
+
+    @Label("Nonce")
+    long nonce;
+
+    @Label("Attempts")
+    @Description("The nonces tried by every mining thread")
+    long attempts;
+}
@@ -0,0 +1,304 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * The search for one block's nonce, kept as state that can be saved to a
+ * checkpoint file and resumed by a later process. The state is the block's
+ * header fields and a frontier: every nonce below the frontier has been
+ * tried and failed, so a resumed search starts there instead of at 0.
+ *
+ * <p>A checkpoint is written to a temporary file, forced to disk and then
+ * moved over the previous checkpoint, so a crash leaves either the old or
+ * the new checkpoint whole. It ends with a CRC-32C of its contents, as
+ * BlockLog records do.
+ */
+public class MiningJob {
+
+    private static final int MAGIC = 0x4d4a4f42;
+    // Magic, number, amount, difficulty, frontier, nonce, previous hash flag,
+    // previous hash and transaction count; the transactions and the checksum
+    // follow.
+    private static final int FIXED_SIZE = 5 * Integer.BYTES + 2 * Long.BYTES + 1 + Hash.SIZE;
+
+    private final int num;
+    private final int amount;
+    private final int[] transactions;
+    private final Hash prevHash;
+    private final int difficulty;
+    private long frontier;
+    private long nonce = -1;
+
+    /**
+     * Instantiates MiningJob.
+     *
+     * @param num the block number
+     * @param amount the amount transferred, the batch total for a batch
+     * @param transactions the batch of transactions, or null
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param difficulty the number of leading zero bits required
+     * @param frontier the first nonce not yet tried
+     */
+    private MiningJob(
+            int num, int amount, int[] transactions, Hash prevHash, int difficulty, long frontier
+    ) {
+        this.num = num;
+        this.amount = amount;
+        this.transactions = transactions;
+        this.prevHash = prevHash;
+        this.difficulty = Hash.checkDifficulty(difficulty);
+        this.frontier = frontier;
+    }
+
+    /**
+     * Instantiates a job that mines a single-amount block from nonce 0.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block, or null for genesis
+     * @param difficulty the number of leading zero bits required
+     */
+    public MiningJob(int num, int amount, Hash prevHash, int difficulty) {
+        this(num, amount, null, prevHash, difficulty, 0);
+    }
+
+    /**
+     * Instantiates a job that mines a batch block from nonce 0.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order; copied
+     * @param prevHash the hash of the previous block
+     * @param difficulty the number of leading zero bits required
+     */
+    public MiningJob(int num, int[] transactions, Hash prevHash, int difficulty) {
+        this(num, Block.totalOf(transactions), transactions.clone(), prevHash, difficulty, 0);
+    }
+
+    /**
+     * Returns the first nonce not yet tried. Once the job has found its
+     * nonce, this is the winning nonce.
+     *
+     * @return the frontier
+     */
+    public long getFrontier() {
+        return frontier;
+    }
+
+    /**
+     * Returns true once a valid nonce has been found.
+     *
+     * @return true if the job is done, false otherwise
+     */
+    public boolean isFound() {
+        return nonce >= 0;
+    }
+
+    /**
+     * Tries up to count more nonces from the frontier and moves the
+     * frontier past them, or to the winning nonce if one of them is valid.
+     *
+     * @param engine the hash engine to mine with
+     * @param count the most nonces to try
+     * @return true if a valid nonce has been found
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public boolean advance(HashEngine engine, long count) throws NoSuchAlgorithmException {
+        return advance(engine.newMiningEngine(headerPrefix(), difficulty), count);
+    }
+
+    /**
+     * Mines until a valid nonce is found, saving a checkpoint after every
+     * checkpointEvery nonces. The checkpoint is deleted once the block is
+     * found. An interrupted search saves a checkpoint before it stops.
+     *
+     * @param engine the hash engine to mine with
+     * @param checkpoint the checkpoint file to write
+     * @param checkpointEvery the number of nonces between checkpoints
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IOException if a checkpoint cannot be written
+     * @throws IllegalStateException if the thread is interrupted
+     */
+    public Block run(HashEngine engine, Path checkpoint, long checkpointEvery)
+            throws NoSuchAlgorithmException, IOException {
+        if (checkpointEvery < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        MiningEngine search = engine.newMiningEngine(headerPrefix(), difficulty);
+        while (!advance(search, checkpointEvery)) {
+            save(checkpoint);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Mining was interrupted");
+            }
+        }
+        Files.deleteIfExists(checkpoint);
+        return getBlock(engine);
+    }
+
+    /**
+     * Returns the block with the winning nonce.
+     *
+     * @param engine the hash engine to hash with
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IllegalStateException if no nonce has been found yet
+     */
+    public Block getBlock(HashEngine engine) throws NoSuchAlgorithmException {
+        if (!isFound()) {
+            throw new IllegalStateException("No nonce has been found");
+        }
+        return transactions == null
+                ? new Block(num, amount, prevHash, nonce, engine, difficulty)
+                : new Block(num, transactions, prevHash, nonce, engine, difficulty);
+    }
+
+    /**
+     * Writes the job to a checkpoint file, replacing any earlier one.
+     *
+     * @param checkpoint the checkpoint file
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void save(Path checkpoint) throws IOException {
+        int count = transactions == null ? 0 : transactions.length;
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + count * Integer.BYTES + Integer.BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(num);
+        buffer.putInt(amount);
+        buffer.putInt(difficulty);
+        buffer.putLong(frontier);
+        buffer.putLong(nonce);
+        buffer.put((byte) (prevHash == null ? 0 : 1));
+        if (prevHash != null) {
+            prevHash.writeTo(buffer, buffer.position());
+        }
+        buffer.position(buffer.position() + Hash.SIZE);
+        buffer.putInt(transactions == null ? -1 : count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(transactions[i]);
+        }
+        buffer.putInt(checksumOf(buffer.array(), buffer.position()));
+        buffer.flip();
+
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(
+                temp,
+                checkpoint,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+        );
+    }
+
+    /**
+     * Reads a job back from a checkpoint file.
+     *
+     * @param checkpoint the checkpoint file
+     * @return the job, resuming from its saved frontier
+     * @throws IOException if the file cannot be read or is not a whole
+     *     checkpoint
+     */
+    public static MiningJob load(Path checkpoint) throws IOException {
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < FIXED_SIZE + Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException(checkpoint + " is not a mining checkpoint");
+        }
+        int num = buffer.getInt();
+        int amount = buffer.getInt();
+        int difficulty = buffer.getInt();
+        long frontier = buffer.getLong();
+        long nonce = buffer.getLong();
+        boolean hasPrev = buffer.get() != 0;
+        Hash prevHash = hasPrev ? Hash.read(buffer, buffer.position()) : null;
+        buffer.position(buffer.position() + Hash.SIZE);
+        int count = buffer.getInt();
+        if (count < -1 || (long) Math.max(count, 0) * Integer.BYTES != buffer.remaining() - 4) {
+            throw new IOException(checkpoint + " is truncated");
+        }
+        int[] transactions = count < 0 ? null : new int[count];
+        for (int i = 0; i < Math.max(count, 0); i++) {
+            transactions[i] = buffer.getInt();
+        }
+        if (buffer.getInt() != checksumOf(bytes, bytes.length - Integer.BYTES)) {
+            throw new IOException(checkpoint + " fails its checksum");
+        }
+
+        MiningJob job;
+        try {
+            job = new MiningJob(num, amount, transactions, prevHash, difficulty, frontier);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(checkpoint + " holds an invalid job", e);
+        }
+        job.nonce = nonce;
+        return job;
+    }
+
+    /**
+     * Tries up to count more nonces from the frontier with an engine built
+     * for this job's header.
+     *
+     * @param search the mining engine
+     * @param count the most nonces to try
+     * @return true if a valid nonce has been found
+     */
+    private boolean advance(MiningEngine search, long count) {
+        if (isFound()) {
+            return true;
+        }
+        long to = frontier + count < 0 ? Long.MAX_VALUE : frontier + count;
+        long found = search.search(frontier, to);
+        if (found >= 0) {
+            nonce = found;
+            frontier = found;
+            return true;
+        }
+        if (to == Long.MAX_VALUE) {
+            throw new IllegalStateException("Nonce space exhausted");
+        }
+        frontier = to;
+        return false;
+    }
+
+    /**
+     * Builds the header words of the block being mined.
+     *
+     * @return the header words before the nonce
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private int[] headerPrefix() throws NoSuchAlgorithmException {
+        return transactions == null
+                ? Block.headerPrefixOf(num, amount, prevHash, difficulty)
+                : Block.headerPrefixOf(num, transactions, prevHash, difficulty);
+    }
+
+    /**
+     * Returns the CRC-32C of the start of an array.
+     *
+     * @param bytes the array
+     * @param length the number of bytes to check
+     * @return the checksum
+     */
+    private static int checksumOf(byte[] bytes, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,18 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * Receives progress reports from a block being mined in the background.
+ * Reports arrive on whichever thread is mining at the time, so a listener
+ * should return quickly and be thread-safe.
+ */
+@FunctionalInterface
+public interface MiningProgress {
+
+    /**
+     * Reports the progress of the nonce search so far.
+     *
+     * @param attempts the number of nonces tried
+     * @param hashRate the nonces tried per second since mining started
+     */
+    void onProgress(long attempts, double hashRate);
+}
@@ -0,0 +1,111 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One nonce search, shared by every thread taking part in it. Nonces are
+ * tried a chunk at a time; after each chunk a thread records how many it
+ * tried and, before the next, checks whether the search should stop because
+ * its future has completed, which is how cancellation and deadlines reach
+ * it. Progress is reported at most every PROGRESS_INTERVAL_NANOS, by
+ * whichever thread records a chunk first once the interval has passed.
+ */
+final class MiningTask {
+
+    /**
+     * The least time between two progress reports.
+     */
+    static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+
+    /**
+     * Runs background mining when no executor is supplied. Its threads are
+     * daemons, so an abandoned search does not keep the program alive.
+     */
+    static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "block-miner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CompletableFuture<?> future;
+    private final MiningProgress progress;
+    private final long start;
+    private final AtomicLong lastReport;
+    private final LongAdder attempts = new LongAdder();
+
+    /**
+     * Instantiates MiningTask.
+     *
+     * @param future the future of the block being mined, or null if only
+     *     finding a nonce stops the search
+     * @param progress where to report progress, or null
+     */
+    MiningTask(CompletableFuture<?> future, MiningProgress progress) {
+        this.future = future;
+        this.progress = progress;
+        this.start = System.nanoTime();
+        this.lastReport = new AtomicLong(start);
+    }
+
+    /**
+     * Returns true if the search should stop without a nonce.
+     *
+     * @return true if the future has completed, false otherwise
+     */
+    boolean isStopped() {
+        return future != null && future.isDone();
+    }
+
+    /**
+     * Records nonces tried and reports progress if it is due.
+     *
+     * @param tried the number of nonces tried since the last record
+     */
+    void record(long tried) {
+        attempts.add(tried);
+        if (progress == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if (now - last >= PROGRESS_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+            long total = attempts.sum();
+            progress.onProgress(total, total * 1e9 / (now - start));
+        }
+    }
+
+    /**
+     * Returns the number of nonces tried so far by every thread.
+     *
+     * @return the number of attempts
+     */
+    long getAttempts() {
+        return attempts.sum();
+    }
+
+    /**
+     * Searches for a winning nonce on the calling thread until one is found
+     * or the search is stopped.
+     *
+     * @param engine the engine holding the header and difficulty
+     * @return the winning nonce, or -1 if the search was stopped first
+     */
+    long search(MiningEngine engine) {
+        for (long from = 0; from >= 0; from += ParallelMiner.CHUNK_SIZE) {
+            if (isStopped()) {
+                return -1;
+            }
+            long nonce = engine.search(from, from + ParallelMiner.CHUNK_SIZE);
+            if (nonce >= 0) {
+                record(nonce - from + 1);
+                return nonce;
+            }
+            record(ParallelMiner.CHUNK_SIZE);
+        }
+        throw new IllegalStateException("Nonce space exhausted");
+    }
+}
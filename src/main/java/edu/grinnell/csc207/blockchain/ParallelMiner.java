@@ -0,0 +1,227 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mines blocks by splitting the nonce space across several worker threads.
+ * Workers claim fixed-size chunks of nonces from a shared counter and all of
+ * them stop as soon as any worker finds a valid hash.
+ */
+public class ParallelMiner {
+
+    /**
+     * The number of consecutive nonces a worker claims at a time.
+     */
+    public static final int CHUNK_SIZE = 1 << 12;
+
+    private static final long NOT_FOUND = -1;
+
+    private final int workers;
+    private final HashEngine hashEngine;
+    private final ForkJoinPool pool;
+
+    /**
+     * Instantiates ParallelMiner using the default hash engine.
+     *
+     * @param workers the number of worker threads to mine with
+     */
+    public ParallelMiner(int workers) {
+        this(workers, HashEngine.JCA);
+    }
+
+    /**
+     * Instantiates ParallelMiner.
+     *
+     * @param workers the number of worker threads to mine with
+     * @param hashEngine the hash engine each worker mines with
+     */
+    public ParallelMiner(int workers, HashEngine hashEngine) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+        this.workers = workers;
+        this.hashEngine = hashEngine;
+        this.pool = new ForkJoinPool(workers);
+    }
+
+    /**
+     * Returns the number of worker threads used for mining.
+     *
+     * @return the number of workers
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Mines a block with the given contents, searching the nonce space in
+     * parallel.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block mine(int num, int amount, Hash prevHash)
+            throws NoSuchAlgorithmException {
+        return mine(num, amount, prevHash, Hash.DEFAULT_DIFFICULTY);
+    }
+
+    /**
+     * Mines a block with the given contents to the given difficulty,
+     * searching the nonce space in parallel.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param difficulty the number of leading zero bits required
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block mine(int num, int amount, Hash prevHash, int difficulty)
+            throws NoSuchAlgorithmException {
+        return mine(num, amount, prevHash, difficulty, new MiningTask(null, null));
+    }
+
+    /**
+     * Mines a block with the given contents to the given difficulty as part
+     * of a mining task, which counts the nonces every worker tries.
+     *
+     * @param num the block number
+     * @param amount the amount transferred
+     * @param prevHash the hash of the previous block
+     * @param difficulty the number of leading zero bits required
+     * @param task the task to record attempts in and to stop with
+     * @return the mined block, or null if the task was stopped first
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    Block mine(int num, int amount, Hash prevHash, int difficulty, MiningTask task)
+            throws NoSuchAlgorithmException {
+        int[] headerPrefix = Block.headerPrefixOf(num, amount, prevHash, difficulty);
+        long nonce = searchNonce(headerPrefix, difficulty, task);
+        return nonce < 0 ? null : new Block(num, amount, prevHash, nonce, hashEngine, difficulty);
+    }
+
+    /**
+     * Mines a block carrying a batch of transactions to the given
+     * difficulty, searching the nonce space in parallel.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order
+     * @param prevHash the hash of the previous block
+     * @param difficulty the number of leading zero bits required
+     * @return the mined block
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public Block mine(int num, int[] transactions, Hash prevHash, int difficulty)
+            throws NoSuchAlgorithmException {
+        return mine(num, transactions, prevHash, difficulty, new MiningTask(null, null));
+    }
+
+    /**
+     * Mines a block carrying a batch of transactions to the given difficulty
+     * as part of a mining task, which counts the nonces every worker tries.
+     *
+     * @param num the block number
+     * @param transactions the amounts transferred, in order
+     * @param prevHash the hash of the previous block
+     * @param difficulty the number of leading zero bits required
+     * @param task the task to record attempts in and to stop with
+     * @return the mined block, or null if the task was stopped first
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    Block mine(int num, int[] transactions, Hash prevHash, int difficulty, MiningTask task)
+            throws NoSuchAlgorithmException {
+        int[] headerPrefix = Block.headerPrefixOf(num, transactions, prevHash, difficulty);
+        long nonce = searchNonce(headerPrefix, difficulty, task);
+        return nonce < 0
+                ? null
+                : new Block(num, transactions, prevHash, nonce, hashEngine, difficulty);
+    }
+
+    /**
+     * Searches the nonce space in parallel for a header.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits required
+     * @param task the task to record attempts in and to stop with
+     * @return the winning nonce, or -1 if the task was stopped first
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private long searchNonce(int[] headerPrefix, int difficulty, MiningTask task)
+            throws NoSuchAlgorithmException {
+
+        AtomicLong nextChunk = new AtomicLong();
+        AtomicLong found = new AtomicLong(NOT_FOUND);
+
+        List<Callable<Void>> tasks = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            tasks.add(() -> {
+                MiningEngine engine = hashEngine.newMiningEngine(headerPrefix, difficulty);
+                search(engine, nextChunk, found, task);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            found.compareAndSet(NOT_FOUND, Long.MAX_VALUE);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Mining was interrupted", e);
+        } catch (ExecutionException e) {
+            found.compareAndSet(NOT_FOUND, Long.MAX_VALUE);
+            if (e.getCause() instanceof NoSuchAlgorithmException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Mining failed", e.getCause());
+        }
+
+        if (found.get() == NOT_FOUND) {
+            if (task.isStopped()) {
+                return NOT_FOUND;
+            }
+            throw new IllegalStateException("Nonce space exhausted");
+        }
+        return found.get();
+    }
+
+    /**
+     * Claims chunks of nonces and tests them until some worker finds a valid
+     * hash, the task is stopped or the nonce space runs out. Every nonce
+     * tested is recorded in the task.
+     *
+     * @param engine this worker's mining engine
+     * @param nextChunk the first nonce of the next unclaimed chunk
+     * @param found the winning nonce, or NOT_FOUND while searching
+     * @param task the task to record attempts in and to stop with
+     */
+    private static void search(
+            MiningEngine engine, AtomicLong nextChunk, AtomicLong found, MiningTask task
+    ) {
+        while (found.get() == NOT_FOUND && !task.isStopped()) {
+            long start = nextChunk.getAndAdd(CHUNK_SIZE);
+            if (start < 0) {
+                return;
+            }
+
+            long nonce = engine.search(start, start + CHUNK_SIZE);
+            if (nonce >= 0) {
+                task.record(nonce - start + 1);
+                found.compareAndSet(NOT_FOUND, nonce);
+                return;
+            }
+            task.record(CHUNK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A block store that keeps only the most recent blocks as objects and spills
+ * older ones to segment files, so the heap it takes does not grow with the
+ * chain. Blocks leave a ring of recent blocks in the order they were added;
+ * each one is written as a fixed-size record to a block segment, with the
+ * transactions of a batch in a second segment. Looking up an older block
+ * reads its record back, and a bounded cache keeps the blocks read most
+ * recently, so lookups that keep coming back to the same stretch of history
+ * do not hit the file each time.
+ *
+ * <p>The segments only back this store's own memory: they are opened empty,
+ * deleted when the store is closed and not forced to disk. A chain that has
+ * to survive a restart keeps a BlockLog as well. A PruningBlockStore is not
+ * safe for use by several threads at once.
+ */
+public class PruningBlockStore implements BlockStore, Closeable {
+
+    // Field offsets within a spilled record. The count is -1 for a
+    // single-amount block.
+    private static final int AMOUNT = 0;
+    private static final int DIFFICULTY = 4;
+    private static final int NONCE = 8;
+    private static final int PREV_HASH = 16;
+    private static final int HASH = 48;
+    private static final int COUNT = 80;
+    private static final int TX_OFFSET = 84;
+    private static final int RECORD_SIZE = 92;
+
+    private final FileChannel blockSegment;
+    private final FileChannel transactionSegment;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final Block[] recent;
+    private final Map<Integer, Block> cache;
+    private int recentStart;
+    private int recentCount;
+    private int spilled;
+    private long transactionEnd;
+    private long hits;
+    private long misses;
+
+    /**
+     * Instantiates an empty PruningBlockStore that spills to segment files
+     * in the given directory.
+     *
+     * @param dir the directory to keep the segments in
+     * @param keepRecent the number of most recent blocks kept as objects, at
+     *     least 1
+     * @param cacheCapacity the number of older blocks the cache holds, at
+     *     least 0
+     * @throws IOException if the segments cannot be created
+     */
+    public PruningBlockStore(Path dir, int keepRecent, int cacheCapacity) throws IOException {
+        if (keepRecent < 1) {
+            throw new IllegalArgumentException("Must keep at least one recent block");
+        }
+        if (cacheCapacity < 0) {
+            throw new IllegalArgumentException("Cache capacity cannot be negative");
+        }
+        this.recent = new Block[keepRecent];
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+        this.blockSegment = openSegment(dir.resolve("blocks.seg"));
+        try {
+            this.transactionSegment = openSegment(dir.resolve("transactions.seg"));
+        } catch (IOException e) {
+            blockSegment.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int size() {
+        return spilled + recentCount;
+    }
+
+    /**
+     * Adds a block after the last one, first spilling the oldest recent
+     * block if the ring is full.
+     *
+     * @param blk the block to add
+     * @throws UncheckedIOException if a block cannot be spilled
+     */
+    @Override
+    public void add(Block blk) {
+        if (recentCount == recent.length) {
+            spill(recent[recentStart]);
+            recent[recentStart] = null;
+            recentStart = (recentStart + 1) % recent.length;
+            recentCount--;
+        }
+        recent[(recentStart + recentCount) % recent.length] = blk;
+        recentCount++;
+    }
+
+    /**
+     * Removes the last block. Once no recent blocks are left, spilled
+     * blocks are dropped from the end of the segments instead.
+     */
+    @Override
+    public void removeLast() {
+        if (recentCount > 0) {
+            recentCount--;
+            recent[(recentStart + recentCount) % recent.length] = null;
+            return;
+        }
+        if (spilled == 0) {
+            throw new IllegalStateException("Store is empty");
+        }
+        spilled--;
+        cache.remove(spilled);
+        readRecord(spilled);
+        if (record.getInt(COUNT) >= 0) {
+            transactionEnd = record.getLong(TX_OFFSET);
+        }
+    }
+
+    /**
+     * Returns the block at the given index, reading it back from the
+     * segments if it has been spilled and is not cached.
+     *
+     * @param index the index of the block, starting from 0
+     * @return the block at the index
+     * @throws IndexOutOfBoundsException if the index is not in the store
+     * @throws UncheckedIOException if a spilled block cannot be read
+     */
+    @Override
+    public Block get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(
+                    "Index " + index + " out of bounds for size " + size()
+            );
+        }
+        if (index >= spilled) {
+            return recent[(recentStart + index - spilled) % recent.length];
+        }
+        Block blk = cache.get(index);
+        if (blk != null) {
+            hits++;
+            return blk;
+        }
+        misses++;
+        blk = readBlock(index);
+        cache.put(index, blk);
+        return blk;
+    }
+
+    /**
+     * Returns the number of blocks spilled to the segments.
+     *
+     * @return the number of spilled blocks
+     */
+    public int getSpilledCount() {
+        return spilled;
+    }
+
+    /**
+     * Returns the number of spilled blocks served from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of spilled blocks read back from the segments.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Closes and deletes the segments. The store cannot be used afterwards.
+     *
+     * @throws IOException if a segment cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            blockSegment.close();
+        } finally {
+            transactionSegment.close();
+        }
+    }
+
+    /**
+     * Writes a block to the end of the segments.
+     *
+     * @param blk the block to spill
+     */
+    private void spill(Block blk) {
+        record.clear();
+        record.putInt(AMOUNT, blk.getAmount());
+        record.putInt(DIFFICULTY, blk.getDifficulty());
+        record.putLong(NONCE, blk.getNonce());
+        if (blk.getPrevHash() == null) {
+            record.put(PREV_HASH, new byte[Hash.SIZE]);
+        } else {
+            blk.getPrevHash().writeTo(record, PREV_HASH);
+        }
+        blk.getHash().writeTo(record, HASH);
+        record.putInt(COUNT, blk.isBatch() ? blk.getTransactionCount() : -1);
+        record.putLong(TX_OFFSET, transactionEnd);
+        try {
+            if (blk.isBatch()) {
+                ByteBuffer transactions =
+                        ByteBuffer.allocate(blk.getTransactionCount() * Integer.BYTES);
+                transactions.asIntBuffer().put(blk.getTransactions());
+                writeFully(transactionSegment, transactions, transactionEnd);
+                transactionEnd += transactions.capacity();
+            }
+            writeFully(blockSegment, record, (long) spilled * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spilled++;
+    }
+
+    /**
+     * Reads a spilled block back from the segments.
+     *
+     * @param index the index of the block
+     * @return the block, keeping its stored hash
+     */
+    private Block readBlock(int index) {
+        readRecord(index);
+        int amount = record.getInt(AMOUNT);
+        int difficulty = record.getInt(DIFFICULTY);
+        long nonce = record.getLong(NONCE);
+        Hash prevHash = index == 0 ? null : Hash.read(record, PREV_HASH);
+        Hash hash = Hash.read(record, HASH);
+        int count = record.getInt(COUNT);
+        if (count < 0) {
+            return new Block(index, amount, prevHash, nonce, difficulty, hash);
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(count * Integer.BYTES);
+        readFully(transactionSegment, bytes, record.getLong(TX_OFFSET));
+        int[] transactions = new int[count];
+        bytes.flip();
+        bytes.asIntBuffer().get(transactions);
+        return new Block(index, transactions, prevHash, nonce, difficulty, hash);
+    }
+
+    /**
+     * Reads a spilled record into the scratch buffer.
+     *
+     * @param index the index of the block
+     */
+    private void readRecord(int index) {
+        record.clear();
+        readFully(blockSegment, record, (long) index * RECORD_SIZE);
+    }
+
+    /**
+     * Opens an empty segment that is deleted when closed.
+     *
+     * @param path the segment file
+     * @return the segment's channel
+     * @throws IOException if the segment cannot be opened
+     */
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE
+        );
+    }
+
+    /**
+     * Writes a whole buffer at a position.
+     *
+     * @param channel the channel to write to
+     * @param buffer the buffer, positioned at its start
+     * @param position the position in the file
+     * @throws IOException if the buffer cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Fills a buffer from a position.
+     *
+     * @param channel the channel to read from
+     * @param buffer the buffer to fill
+     * @param position the position in the file
+     * @throws UncheckedIOException if the file cannot be read or ends first
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Segment ended early");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
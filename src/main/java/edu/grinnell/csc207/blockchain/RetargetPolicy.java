@@ -0,0 +1,82 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * Adjusts a chain's difficulty to hold a target block interval. Every window
+ * blocks, the average time it took to mine them is compared with the target,
+ * and since each extra leading zero bit doubles the expected work, the
+ * difficulty moves by the base-2 logarithm of the ratio, rounded to whole
+ * bits and clamped to the policy's bounds.
+ */
+public class RetargetPolicy {
+
+    private final int window;
+    private final long targetNanos;
+    private final int minDifficulty;
+    private final int maxDifficulty;
+    private long totalNanos;
+    private int count;
+
+    /**
+     * Instantiates RetargetPolicy with the widest difficulty bounds.
+     *
+     * @param window the number of blocks between adjustments
+     * @param targetNanos the target time to mine a block in nanoseconds
+     */
+    public RetargetPolicy(int window, long targetNanos) {
+        this(window, targetNanos, 1, Hash.MAX_DIFFICULTY);
+    }
+
+    /**
+     * Instantiates RetargetPolicy.
+     *
+     * @param window the number of blocks between adjustments
+     * @param targetNanos the target time to mine a block in nanoseconds
+     * @param minDifficulty the lowest difficulty the policy will choose
+     * @param maxDifficulty the highest difficulty the policy will choose
+     */
+    public RetargetPolicy(int window, long targetNanos, int minDifficulty, int maxDifficulty) {
+        if (window < 1 || targetNanos < 1) {
+            throw new IllegalArgumentException("Window and target must be positive");
+        }
+        if (Hash.checkDifficulty(minDifficulty) > Hash.checkDifficulty(maxDifficulty)) {
+            throw new IllegalArgumentException("Minimum difficulty exceeds maximum");
+        }
+        this.window = window;
+        this.targetNanos = targetNanos;
+        this.minDifficulty = minDifficulty;
+        this.maxDifficulty = maxDifficulty;
+    }
+
+    /**
+     * Returns the lowest difficulty the policy will choose.
+     *
+     * @return the minimum difficulty
+     */
+    public int getMinDifficulty() {
+        return minDifficulty;
+    }
+
+    /**
+     * Records how long an appended block took to mine and returns the
+     * difficulty for the next block.
+     *
+     * @param difficulty the current difficulty
+     * @param miningNanos the time it took to mine the block in nanoseconds
+     * @return the difficulty for the next block
+     */
+    public int record(int difficulty, long miningNanos) {
+        totalNanos += Math.max(1, miningNanos);
+        count++;
+        if (count < window) {
+            return difficulty;
+        }
+
+        double average = (double) totalNanos / count;
+        totalNanos = 0;
+        count = 0;
+
+        long step = Math.round(Math.log(targetNanos / average) / Math.log(2));
+        long next = difficulty + step;
+        return (int) Math.max(minDifficulty, Math.min(maxDifficulty, next));
+    }
+}
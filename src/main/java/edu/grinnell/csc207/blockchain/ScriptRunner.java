@@ -0,0 +1,229 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Runs driver commands from a script without prompting. Commands are read one
+ * per line and may repeat themselves, and output is written only for the
+ * commands that report something, so a script of many commands costs no
+ * more than the commands themselves. The chain is printed only by the print
+ * command, which streams it rather than building it as one string.
+ *
+ * <p>Each line holds one command; blank lines and lines starting with # are
+ * skipped:
+ * <pre>
+ *     mine &lt;amount&gt;                  mines a block to append later
+ *     append                         appends the block mined last
+ *     mine-append &lt;count&gt; &lt;amount&gt;   mines and appends count blocks
+ *     submit &lt;count&gt; &lt;amount&gt;        adds count pending transactions
+ *     mine-pending                   mines and appends the pending batches
+ *     remove [count]                 removes the last count blocks
+ *     check                          checks that the chain is valid
+ *     report                         reports the balances of Alice and Bob
+ *     print [count]                  prints the last count blocks, or all
+ *     export &lt;file&gt;                  writes the chain to a chain archive
+ * </pre>
+ */
+public class ScriptRunner {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final BlockChain chain;
+    private final PrintWriter out;
+    private Block minedBlock;
+    private long commands;
+    private long mined;
+    private long appended;
+    private long removed;
+
+    /**
+     * Instantiates ScriptRunner.
+     *
+     * @param chain the chain to run the commands against
+     * @param out where to write the output of the commands
+     */
+    public ScriptRunner(BlockChain chain, PrintWriter out) {
+        this.chain = chain;
+        this.out = out;
+    }
+
+    /**
+     * Runs every command of a script, then writes a summary of the work done
+     * and its throughput.
+     *
+     * @param in the script to read
+     * @throws IOException if the script cannot be read
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     * @throws IllegalArgumentException if a line is not a valid command or a
+     *     block cannot be appended, naming the line
+     */
+    public void run(BufferedReader in) throws IOException, NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        int lineNumber = 0;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lineNumber++;
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            try {
+                execute(WHITESPACE.split(trimmed));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new IllegalArgumentException(
+                        "Line " + lineNumber + ": " + e.getMessage(), e
+                );
+            }
+            commands++;
+        }
+        printSummary(System.nanoTime() - start);
+        out.flush();
+    }
+
+    /**
+     * Runs one command.
+     *
+     * @param words the command and its arguments
+     * @throws IOException if the output cannot be written
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    private void execute(String[] words) throws IOException, NoSuchAlgorithmException {
+        switch (words[0]) {
+            case "mine" -> {
+                checkArguments(words, 1, 1);
+                minedBlock = chain.mine(intArgument(words, 1));
+                mined++;
+                out.printf("amount = %d, nonce = %d%n", minedBlock.getAmount(),
+                        minedBlock.getNonce());
+            }
+            case "append" -> {
+                checkArguments(words, 0, 0);
+                if (minedBlock == null) {
+                    throw new IllegalStateException("No block has been mined");
+                }
+                chain.append(minedBlock);
+                minedBlock = null;
+                appended++;
+            }
+            case "mine-append" -> {
+                checkArguments(words, 2, 2);
+                int count = countArgument(words, 1);
+                int amount = intArgument(words, 2);
+                for (int i = 0; i < count; i++) {
+                    chain.append(chain.mine(amount));
+                }
+                mined += count;
+                appended += count;
+            }
+            case "submit" -> {
+                checkArguments(words, 2, 2);
+                int count = countArgument(words, 1);
+                int amount = intArgument(words, 2);
+                for (int i = 0; i < count; i++) {
+                    chain.submit(amount);
+                }
+            }
+            case "mine-pending" -> {
+                checkArguments(words, 0, 0);
+                while (chain.getPendingCount() > 0) {
+                    chain.append(chain.minePending());
+                    mined++;
+                    appended++;
+                }
+            }
+            case "remove" -> {
+                checkArguments(words, 0, 1);
+                int count = words.length > 1 ? countArgument(words, 1) : 1;
+                for (int i = 0; i < count && chain.removeLast(); i++) {
+                    removed++;
+                }
+            }
+            case "check" -> {
+                checkArguments(words, 0, 0);
+                out.println(chain.isValidBlockChain() ? "Chain is valid!" : "Chain is not valid");
+            }
+            case "report" -> {
+                checkArguments(words, 0, 0);
+                out.printf("Alice: %d, Bob: %d%n", chain.getAliceBalance(), chain.getBobBalance());
+            }
+            case "print" -> {
+                checkArguments(words, 0, 1);
+                int count = words.length > 1 ? countArgument(words, 1) : chain.getSize();
+                new ChainRenderer(out).renderTail(chain, count);
+            }
+            case "export" -> {
+                checkArguments(words, 1, 1);
+                new ChainArchive(1).export(chain, Path.of(words[1]));
+            }
+            default ->
+                throw new IllegalArgumentException("Unknown command " + words[0]);
+        }
+    }
+
+    /**
+     * Writes how many commands ran, how many blocks they mined, appended and
+     * removed, and how fast.
+     *
+     * @param nanos the time the script took
+     */
+    private void printSummary(long nanos) {
+        double seconds = nanos / 1e9;
+        out.printf(
+                "Ran %d commands in %.3f s: mined %d, appended %d, removed %d blocks"
+                + " (%.1f blocks/s); chain has %d blocks%n",
+                commands, seconds, mined, appended, removed,
+                seconds > 0 ? mined / seconds : 0.0, chain.getSize()
+        );
+    }
+
+    /**
+     * Checks the number of arguments after a command.
+     *
+     * @param words the command and its arguments
+     * @param min the fewest arguments allowed
+     * @param max the most arguments allowed
+     */
+    private static void checkArguments(String[] words, int min, int max) {
+        int arguments = words.length - 1;
+        if (arguments < min || arguments > max) {
+            throw new IllegalArgumentException(
+                    words[0] + " takes " + (min == max ? min : min + " to " + max)
+                    + " arguments, not " + arguments
+            );
+        }
+    }
+
+    /**
+     * Parses an integer argument.
+     *
+     * @param words the command and its arguments
+     * @param index the index of the argument
+     * @return the integer
+     */
+    private static int intArgument(String[] words, int index) {
+        try {
+            return Integer.parseInt(words[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + words[index], e);
+        }
+    }
+
+    /**
+     * Parses a repeat count argument.
+     *
+     * @param words the command and its arguments
+     * @param index the index of the argument
+     * @return the count, at least zero
+     */
+    private static int countArgument(String[] words, int index) {
+        int count = intArgument(words, index);
+        if (count < 0) {
+            throw new IllegalArgumentException("Count cannot be negative: " + count);
+        }
+        return count;
+    }
+}
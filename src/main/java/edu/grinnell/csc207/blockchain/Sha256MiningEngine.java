@@ -0,0 +1,317 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A mining engine with a pure-Java SHA-256 kernel specialized for block
+ * headers. A header is at most a few words plus the nonce, so it always fits
+ * in one 512-bit compression block whose padding is fixed. Everything that
+ * does not depend on the nonce is computed once: the rounds that only read the
+ * header prefix, the message schedule words that never see the nonce, and the
+ * constant terms of those that do. Each attempt only runs the remaining
+ * nonce-dependent schedule words and rounds.
+ */
+class Sha256MiningEngine extends MiningEngine {
+
+    /**
+     * The SHA-256 round constants.
+     */
+    static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1,
+        0x923f82a4, 0xab1c5ed5, 0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3,
+        0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174, 0xe49b69c1, 0xefbe4786,
+        0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147,
+        0x06ca6351, 0x14292967, 0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13,
+        0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85, 0xa2bfe8a1, 0xa81a664b,
+        0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a,
+        0x5b9cca4f, 0x682e6ff3, 0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208,
+        0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    /**
+     * The SHA-256 initial hash value.
+     */
+    static final int[] IV = {
+        0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+        0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    /**
+     * The number of message words in one compression block.
+     */
+    static final int BLOCK_WORDS = 16;
+
+    /**
+     * The number of compression rounds.
+     */
+    static final int ROUNDS = 64;
+
+    /**
+     * Bits of a dynamic schedule term mask, one per input of the recurrence
+     * W[t] = s1(W[t-2]) + W[t-7] + s0(W[t-15]) + W[t-16].
+     */
+    static final int TERM_2 = 1;
+    static final int TERM_7 = 2;
+    static final int TERM_15 = 4;
+    static final int TERM_16 = 8;
+
+    /**
+     * The index of the high nonce word in the message block.
+     */
+    int nonceWord;
+
+    /**
+     * The message schedule, with every nonce-independent word filled in.
+     */
+    final int[] w;
+
+    /**
+     * The sum of the nonce-independent terms of each schedule word.
+     */
+    final int[] wConst;
+
+    /**
+     * The mask of nonce-dependent terms of each schedule word.
+     */
+    final int[] wTerms;
+
+    /**
+     * The working state after the rounds before the nonce word.
+     */
+    final int[] midState;
+
+    private final int[] out;
+
+    /**
+     * Instantiates Sha256MiningEngine.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits a valid hash needs
+     */
+    Sha256MiningEngine(int[] headerPrefix, int difficulty) {
+        super(difficulty);
+        this.w = new int[ROUNDS];
+        this.wConst = new int[ROUNDS];
+        this.wTerms = new int[ROUNDS];
+        this.midState = new int[8];
+        this.out = new int[8];
+        setHeader(headerPrefix);
+    }
+
+    @Override
+    final void setHeader(int[] headerPrefix) {
+        if (headerPrefix.length + 2 > BLOCK_WORDS - 3) {
+            throw new IllegalArgumentException("Header does not fit in one block");
+        }
+        nonceWord = headerPrefix.length;
+        Arrays.fill(w, 0);
+
+        // The padded message block: prefix, nonce, a single 1 bit, then the
+        // message length in bits in the last word.
+        System.arraycopy(headerPrefix, 0, w, 0, nonceWord);
+        w[nonceWord + 2] = 0x80000000;
+        w[BLOCK_WORDS - 1] = (nonceWord + 2) * Integer.SIZE;
+
+        boolean[] dependent = new boolean[ROUNDS];
+        dependent[nonceWord] = true;
+        dependent[nonceWord + 1] = true;
+        for (int t = BLOCK_WORDS; t < ROUNDS; t++) {
+            int terms = 0;
+            int sum = 0;
+            if (dependent[t - 2]) {
+                terms |= TERM_2;
+            } else {
+                sum += smallSigma1(w[t - 2]);
+            }
+            if (dependent[t - 7]) {
+                terms |= TERM_7;
+            } else {
+                sum += w[t - 7];
+            }
+            if (dependent[t - 15]) {
+                terms |= TERM_15;
+            } else {
+                sum += smallSigma0(w[t - 15]);
+            }
+            if (dependent[t - 16]) {
+                terms |= TERM_16;
+            } else {
+                sum += w[t - 16];
+            }
+            wConst[t] = sum;
+            wTerms[t] = terms;
+            dependent[t] = terms != 0;
+            if (!dependent[t]) {
+                w[t] = sum;
+            }
+        }
+
+        // The rounds before the nonce word only read the prefix.
+        System.arraycopy(IV, 0, midState, 0, 8);
+        int[] s = midState;
+        for (int t = 0; t < nonceWord; t++) {
+            int t1 = s[7] + bigSigma1(s[4]) + choose(s[4], s[5], s[6]) + K[t] + w[t];
+            int t2 = bigSigma0(s[0]) + majority(s[0], s[1], s[2]);
+            System.arraycopy(s, 0, s, 1, 7);
+            s[4] += t1;
+            s[0] = t1 + t2;
+        }
+    }
+
+    @Override
+    public boolean tryNonce(long nonce) {
+        compress(nonce);
+        return Hash.meetsDifficulty(out, difficulty);
+    }
+
+    @Override
+    public Hash hashOf(long nonce) throws NoSuchAlgorithmException {
+        compress(nonce);
+        return new Hash(
+                wordOf(out[0], out[1]), wordOf(out[2], out[3]),
+                wordOf(out[4], out[5]), wordOf(out[6], out[7])
+        );
+    }
+
+    /**
+     * Runs the nonce-dependent part of the compression function, leaving the
+     * final hash words in out.
+     *
+     * @param nonce the nonce to hash with
+     */
+    private void compress(long nonce) {
+        final int[] w = this.w;
+        w[nonceWord] = (int) (nonce >>> 32);
+        w[nonceWord + 1] = (int) nonce;
+
+        for (int t = BLOCK_WORDS; t < ROUNDS; t++) {
+            int terms = wTerms[t];
+            if (terms != 0) {
+                int sum = wConst[t];
+                if ((terms & TERM_2) != 0) {
+                    sum += smallSigma1(w[t - 2]);
+                }
+                if ((terms & TERM_7) != 0) {
+                    sum += w[t - 7];
+                }
+                if ((terms & TERM_15) != 0) {
+                    sum += smallSigma0(w[t - 15]);
+                }
+                if ((terms & TERM_16) != 0) {
+                    sum += w[t - 16];
+                }
+                w[t] = sum;
+            }
+        }
+
+        int a = midState[0];
+        int b = midState[1];
+        int c = midState[2];
+        int d = midState[3];
+        int e = midState[4];
+        int f = midState[5];
+        int g = midState[6];
+        int h = midState[7];
+        for (int t = nonceWord; t < ROUNDS; t++) {
+            int t1 = h + bigSigma1(e) + choose(e, f, g) + K[t] + w[t];
+            int t2 = bigSigma0(a) + majority(a, b, c);
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        out[0] = IV[0] + a;
+        out[1] = IV[1] + b;
+        out[2] = IV[2] + c;
+        out[3] = IV[3] + d;
+        out[4] = IV[4] + e;
+        out[5] = IV[5] + f;
+        out[6] = IV[6] + g;
+        out[7] = IV[7] + h;
+    }
+
+    /**
+     * Joins two 32-bit words into one 64-bit word.
+     *
+     * @param high the upper word
+     * @param low the lower word
+     * @return the joined word
+     */
+    private static long wordOf(int high, int low) {
+        return (long) high << Integer.SIZE | Integer.toUnsignedLong(low);
+    }
+
+    /**
+     * The SHA-256 choose function.
+     *
+     * @param x the selector
+     * @param y the value chosen where x is 1
+     * @param z the value chosen where x is 0
+     * @return the chosen bits
+     */
+    static int choose(int x, int y, int z) {
+        return (x & y) ^ (~x & z);
+    }
+
+    /**
+     * The SHA-256 majority function.
+     *
+     * @param x the first input
+     * @param y the second input
+     * @param z the third input
+     * @return the majority of each bit
+     */
+    static int majority(int x, int y, int z) {
+        return (x & y) ^ (x & z) ^ (y & z);
+    }
+
+    /**
+     * The SHA-256 upper-case sigma 0 function used on a.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    static int bigSigma0(int x) {
+        return Integer.rotateRight(x, 2) ^ Integer.rotateRight(x, 13)
+                ^ Integer.rotateRight(x, 22);
+    }
+
+    /**
+     * The SHA-256 upper-case sigma 1 function used on e.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    static int bigSigma1(int x) {
+        return Integer.rotateRight(x, 6) ^ Integer.rotateRight(x, 11)
+                ^ Integer.rotateRight(x, 25);
+    }
+
+    /**
+     * The SHA-256 lower-case sigma 0 function used by the message schedule.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    static int smallSigma0(int x) {
+        return Integer.rotateRight(x, 7) ^ Integer.rotateRight(x, 18) ^ (x >>> 3);
+    }
+
+    /**
+     * The SHA-256 lower-case sigma 1 function used by the message schedule.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    static int smallSigma1(int x) {
+        return Integer.rotateRight(x, 17) ^ Integer.rotateRight(x, 19) ^ (x >>> 10);
+    }
+}
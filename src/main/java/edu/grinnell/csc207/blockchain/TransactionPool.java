@@ -0,0 +1,123 @@
+package edu.grinnell.csc207.blockchain;
+
+/**
+ * A first-in, first-out queue of transactions waiting to be mined into a
+ * block, kept as primitive amounts in a growable ring buffer.
+ */
+class TransactionPool {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] amounts;
+    private int head;
+    private int size;
+
+    /**
+     * Instantiates an empty TransactionPool.
+     */
+    TransactionPool() {
+        amounts = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the number of pending transactions.
+     *
+     * @return the number of transactions
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a transaction after every pending one.
+     *
+     * @param amount the amount to transfer
+     */
+    void add(int amount) {
+        ensureCapacity(size + 1);
+        amounts[(head + size) & (amounts.length - 1)] = amount;
+        size++;
+    }
+
+    /**
+     * Puts transactions back before every pending one, in their order.
+     *
+     * @param returned the transactions, oldest first
+     */
+    void addFirst(int[] returned) {
+        ensureCapacity(size + returned.length);
+        head = (head - returned.length) & (amounts.length - 1);
+        for (int i = 0; i < returned.length; i++) {
+            amounts[(head + i) & (amounts.length - 1)] = returned[i];
+        }
+        size += returned.length;
+    }
+
+    /**
+     * Returns the oldest pending transactions without removing them.
+     *
+     * @param count the most transactions to return
+     * @return a new array of up to count transactions, oldest first
+     */
+    int[] peek(int count) {
+        int[] result = new int[Math.min(count, size)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = amounts[(head + i) & (amounts.length - 1)];
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the oldest pending transactions are the given ones, in
+     * the same order.
+     *
+     * @param transactions the transactions to look for, oldest first
+     * @return true if they start the pool, false otherwise
+     */
+    boolean startsWith(int[] transactions) {
+        if (transactions.length > size) {
+            return false;
+        }
+        for (int i = 0; i < transactions.length; i++) {
+            if (amounts[(head + i) & (amounts.length - 1)] != transactions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest pending transactions.
+     *
+     * @param count the number of transactions to remove
+     */
+    void removeFirst(int count) {
+        if (count < 0 || count > size) {
+            throw new IllegalArgumentException("Cannot remove " + count + " of " + size);
+        }
+        head = (head + count) & (amounts.length - 1);
+        size -= count;
+    }
+
+    /**
+     * Doubles the ring buffer until it holds the given number of
+     * transactions, moving the pending ones to its start.
+     *
+     * @param capacity the number of transactions to make room for
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= amounts.length) {
+            return;
+        }
+        int length = amounts.length;
+        while (length < capacity) {
+            length *= 2;
+        }
+        int[] grown = new int[length];
+        for (int i = 0; i < size; i++) {
+            grown[i] = amounts[(head + i) & (amounts.length - 1)];
+        }
+        amounts = grown;
+        head = 0;
+    }
+}
@@ -0,0 +1,337 @@
+package edu.grinnell.csc207.blockchain;
+
+import java.security.NoSuchAlgorithmException;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.ROR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/**
+ * A mining engine that runs the single-block SHA-256 kernel over several
+ * consecutive nonces at once, one nonce per SIMD lane, using the incubating
+ * JDK Vector API. It shares the nonce-independent precomputation of
+ * Sha256MiningEngine and uses it for single hashes and for the ragged end of
+ * a search range.
+ *
+ * <p>This class must only be loaded when the jdk.incubator.vector module is
+ * present; HashEngine.vector checks for it and falls back to the scalar
+ * kernel otherwise.
+ */
+abstract class VectorMiningEngine extends MiningEngine {
+
+    private final Sha256MiningEngine scalar;
+    private final int lanes;
+    private int nonceWord;
+    private final int[] w;
+    private final int firstWordMask;
+
+    /**
+     * Instantiates VectorMiningEngine.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits a valid hash needs
+     * @param lanes the number of nonces hashed at once
+     */
+    private VectorMiningEngine(int[] headerPrefix, int difficulty, int lanes) {
+        super(difficulty);
+        this.scalar = new Sha256MiningEngine(headerPrefix, difficulty);
+        // Lanes whose first word passes are confirmed by the scalar kernel
+        // when the difficulty reaches past it.
+        this.firstWordMask = difficulty >= Integer.SIZE ? -1 : ~(-1 >>> difficulty);
+        this.lanes = lanes;
+        this.w = new int[Sha256MiningEngine.ROUNDS * lanes];
+        fillSchedule();
+    }
+
+    /**
+     * Creates a vector mining engine. The return type is deliberately the
+     * base class so callers never have to resolve the Vector API types.
+     *
+     * @param headerPrefix the big-endian header words before the nonce
+     * @param difficulty the number of leading zero bits a valid hash needs
+     * @param lanes the number of nonces hashed at once: 4, 8 or 16
+     * @return a new mining engine
+     */
+    static MiningEngine create(int[] headerPrefix, int difficulty, int lanes) {
+        return switch (lanes) {
+            case 4 -> new Lanes4(headerPrefix, difficulty);
+            case 8 -> new Lanes8(headerPrefix, difficulty);
+            case 16 -> new Lanes16(headerPrefix, difficulty);
+            default -> throw new IllegalArgumentException("Lanes must be 4, 8 or 16");
+        };
+    }
+
+    @Override
+    public long search(long from, long to) {
+        if (difficulty == 0) {
+            return from < to ? from : -1;
+        }
+        long nonce = from;
+        while (nonce <= to - lanes) {
+            int candidates = tryLanes(nonce);
+            while (candidates != 0) {
+                int lane = Integer.numberOfTrailingZeros(candidates);
+                if (difficulty <= Integer.SIZE || scalar.tryNonce(nonce + lane)) {
+                    return nonce + lane;
+                }
+                candidates &= candidates - 1;
+            }
+            nonce += lanes;
+        }
+        return scalar.search(nonce, to);
+    }
+
+    @Override
+    final void setHeader(int[] headerPrefix) {
+        scalar.setHeader(headerPrefix);
+        fillSchedule();
+    }
+
+    @Override
+    public boolean tryNonce(long nonce) {
+        return scalar.tryNonce(nonce);
+    }
+
+    @Override
+    public Hash hashOf(long nonce) throws NoSuchAlgorithmException {
+        return scalar.hashOf(nonce);
+    }
+
+    /**
+     * Copies the scalar kernel's schedule into every lane.
+     */
+    private void fillSchedule() {
+        nonceWord = scalar.nonceWord;
+        // Lane-interleaved schedule: word t of lane i lives at t * lanes + i.
+        for (int t = 0; t < Sha256MiningEngine.ROUNDS; t++) {
+            for (int i = 0; i < lanes; i++) {
+                w[t * lanes + i] = scalar.w[t];
+            }
+        }
+    }
+
+    /**
+     * Hashes the nonces base through base + lanes - 1 at once.
+     *
+     * @param base the nonce of the first lane
+     * @return a bit set of the lanes whose first hash word meets the difficulty
+     */
+    abstract int tryLanes(long base);
+
+    /**
+     * Hashes the nonces base through base + lanes - 1 at once. The Vector API
+     * is only compiled to SIMD instructions when the species is a constant,
+     * so each lane width calls this from its own subclass with its own
+     * static final species.
+     *
+     * @param species the vector species with one int lane per nonce
+     * @param base the nonce of the first lane
+     * @return a bit set of the lanes whose first hash word meets the difficulty
+     */
+    final int tryLanes(VectorSpecies<Integer> species, long base) {
+        for (int i = 0; i < lanes; i++) {
+            long nonce = base + i;
+            w[nonceWord * lanes + i] = (int) (nonce >>> 32);
+            w[(nonceWord + 1) * lanes + i] = (int) nonce;
+        }
+
+        for (int t = Sha256MiningEngine.BLOCK_WORDS; t < Sha256MiningEngine.ROUNDS; t++) {
+            int terms = scalar.wTerms[t];
+            if (terms != 0) {
+                IntVector sum = IntVector.broadcast(species, scalar.wConst[t]);
+                if ((terms & Sha256MiningEngine.TERM_2) != 0) {
+                    sum = sum.add(smallSigma1(word(species, t - 2)));
+                }
+                if ((terms & Sha256MiningEngine.TERM_7) != 0) {
+                    sum = sum.add(word(species, t - 7));
+                }
+                if ((terms & Sha256MiningEngine.TERM_15) != 0) {
+                    sum = sum.add(smallSigma0(word(species, t - 15)));
+                }
+                if ((terms & Sha256MiningEngine.TERM_16) != 0) {
+                    sum = sum.add(word(species, t - 16));
+                }
+                sum.intoArray(w, t * lanes);
+            }
+        }
+
+        int[] s = scalar.midState;
+        IntVector a = IntVector.broadcast(species, s[0]);
+        IntVector b = IntVector.broadcast(species, s[1]);
+        IntVector c = IntVector.broadcast(species, s[2]);
+        IntVector d = IntVector.broadcast(species, s[3]);
+        IntVector e = IntVector.broadcast(species, s[4]);
+        IntVector f = IntVector.broadcast(species, s[5]);
+        IntVector g = IntVector.broadcast(species, s[6]);
+        IntVector h = IntVector.broadcast(species, s[7]);
+        for (int t = nonceWord; t < Sha256MiningEngine.ROUNDS; t++) {
+            IntVector t1 = h.add(bigSigma1(e)).add(choose(e, f, g));
+            t1 = t1.add(Sha256MiningEngine.K[t]).add(word(species, t));
+            IntVector t2 = bigSigma0(a).add(majority(a, b, c));
+            h = g;
+            g = f;
+            f = e;
+            e = d.add(t1);
+            d = c;
+            c = b;
+            b = a;
+            a = t1.add(t2);
+        }
+
+        IntVector first = a.add(Sha256MiningEngine.IV[0]).and(firstWordMask);
+        VectorMask<Integer> valid = first.compare(EQ, 0);
+        return valid.anyTrue() ? (int) valid.toLong() : 0;
+    }
+
+    /**
+     * Loads schedule word t for every lane.
+     *
+     * @param species the vector species with one int lane per nonce
+     * @param t the schedule index
+     * @return the word in each lane
+     */
+    private IntVector word(VectorSpecies<Integer> species, int t) {
+        return IntVector.fromArray(species, w, t * lanes);
+    }
+
+    /**
+     * The SHA-256 choose function, lane-wise.
+     *
+     * @param x the selector
+     * @param y the value chosen where x is 1
+     * @param z the value chosen where x is 0
+     * @return the chosen bits
+     */
+    private static IntVector choose(IntVector x, IntVector y, IntVector z) {
+        return z.lanewise(XOR, x.and(y.lanewise(XOR, z)));
+    }
+
+    /**
+     * The SHA-256 majority function, lane-wise.
+     *
+     * @param x the first input
+     * @param y the second input
+     * @param z the third input
+     * @return the majority of each bit
+     */
+    private static IntVector majority(IntVector x, IntVector y, IntVector z) {
+        return x.and(y).or(z.and(x.or(y)));
+    }
+
+    /**
+     * The SHA-256 upper-case sigma 0 function, lane-wise.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    private static IntVector bigSigma0(IntVector x) {
+        IntVector mixed = x.lanewise(ROR, 2).lanewise(XOR, x.lanewise(ROR, 13));
+        return mixed.lanewise(XOR, x.lanewise(ROR, 22));
+    }
+
+    /**
+     * The SHA-256 upper-case sigma 1 function, lane-wise.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    private static IntVector bigSigma1(IntVector x) {
+        IntVector mixed = x.lanewise(ROR, 6).lanewise(XOR, x.lanewise(ROR, 11));
+        return mixed.lanewise(XOR, x.lanewise(ROR, 25));
+    }
+
+    /**
+     * The SHA-256 lower-case sigma 0 function, lane-wise.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    private static IntVector smallSigma0(IntVector x) {
+        IntVector mixed = x.lanewise(ROR, 7).lanewise(XOR, x.lanewise(ROR, 18));
+        return mixed.lanewise(XOR, x.lanewise(LSHR, 3));
+    }
+
+    /**
+     * The SHA-256 lower-case sigma 1 function, lane-wise.
+     *
+     * @param x the input
+     * @return the mixed value
+     */
+    private static IntVector smallSigma1(IntVector x) {
+        IntVector mixed = x.lanewise(ROR, 17).lanewise(XOR, x.lanewise(ROR, 19));
+        return mixed.lanewise(XOR, x.lanewise(LSHR, 10));
+    }
+
+    /**
+     * Four lanes, one 128-bit vector.
+     */
+    private static final class Lanes4 extends VectorMiningEngine {
+
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+        /**
+         * Instantiates Lanes4.
+         *
+         * @param headerPrefix the big-endian header words before the nonce
+         * @param difficulty the number of leading zero bits a valid hash needs
+         */
+        Lanes4(int[] headerPrefix, int difficulty) {
+            super(headerPrefix, difficulty, SPECIES.length());
+        }
+
+        @Override
+        int tryLanes(long base) {
+            return tryLanes(SPECIES, base);
+        }
+    }
+
+    /**
+     * Eight lanes, one 256-bit vector.
+     */
+    private static final class Lanes8 extends VectorMiningEngine {
+
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_256;
+
+        /**
+         * Instantiates Lanes8.
+         *
+         * @param headerPrefix the big-endian header words before the nonce
+         * @param difficulty the number of leading zero bits a valid hash needs
+         */
+        Lanes8(int[] headerPrefix, int difficulty) {
+            super(headerPrefix, difficulty, SPECIES.length());
+        }
+
+        @Override
+        int tryLanes(long base) {
+            return tryLanes(SPECIES, base);
+        }
+    }
+
+    /**
+     * Sixteen lanes, one 512-bit vector.
+     */
+    private static final class Lanes16 extends VectorMiningEngine {
+
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_512;
+
+        /**
+         * Instantiates Lanes16.
+         *
+         * @param headerPrefix the big-endian header words before the nonce
+         * @param difficulty the number of leading zero bits a valid hash needs
+         */
+        Lanes16(int[] headerPrefix, int difficulty) {
+            super(headerPrefix, difficulty, SPECIES.length());
+        }
+
+        @Override
+        int tryLanes(long base) {
+            return tryLanes(SPECIES, base);
+        }
+    }
+}
@@ -1,9 +1,44 @@
 package edu.grinnell.csc207.blockchain;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class Tests{
 
@@ -56,6 +91,1237 @@ public class Tests{
         assertTrue(minedBlock.getHash().isValid(), "The mined block hash should be valid.");
     }
 
+    @Test
+    void testParallelMineBlock() throws NoSuchAlgorithmException {
+        Block minedBlock = new ParallelMiner(4).mine(4, 400, prevHash);
+
+        assertEquals(4, minedBlock.getNum(), "Block number should be 4.");
+        assertEquals(400, minedBlock.getAmount(), "Block amount should be 400.");
+        assertTrue(minedBlock.getHash().isValid(), "The mined block hash should be valid.");
+        assertEquals(minedBlock.getHash(),
+                new Block(4, 400, prevHash, minedBlock.getNonce()).getHash(),
+                "The winning nonce should reproduce the mined hash.");
+    }
+
+    @Test
+    void testMiningEngineMatchesNonceConstructor() throws NoSuchAlgorithmException {
+        MiningEngine engine = HashEngine.JCA.newMiningEngine(
+                Block.headerPrefixOf(1, 100, prevHash, Hash.DEFAULT_DIFFICULTY),
+                Hash.DEFAULT_DIFFICULTY);
+
+        assertEquals(block1.getNonce(), engine.search(0, block1.getNonce() + 1),
+                "The engine should find the same first valid nonce.");
+        assertEquals(new Block(1, 100, prevHash, 12345).getHash(), engine.hashOf(12345),
+                "The engine should hash the same header as the nonce constructor.");
+    }
+
+    @Test
+    void testSha256EngineMatchesJca() throws NoSuchAlgorithmException {
+        for (int num = 0; num < 3; num++) {
+            int[] prefix = Block.headerPrefixOf(num, -7 * num, block1.getHash(), num);
+            MiningEngine jca = HashEngine.JCA.newMiningEngine(prefix, Hash.DEFAULT_DIFFICULTY);
+            MiningEngine sha256 = HashEngine.SHA256.newMiningEngine(prefix, Hash.DEFAULT_DIFFICULTY);
+            for (long nonce : new long[] {0, 1, 255, 1L << 32, -1, Long.MAX_VALUE}) {
+                assertEquals(jca.hashOf(nonce), sha256.hashOf(nonce),
+                        "Both engines should produce the same hash.");
+            }
+        }
+
+        Block mined = new Block(1, 100, prevHash, HashEngine.SHA256);
+        assertEquals(block1.getNonce(), mined.getNonce(),
+                "Both engines should find the same first valid nonce.");
+    }
+
+    @Test
+    void testVectorEngineMatchesScalar() throws NoSuchAlgorithmException {
+        assumeTrue(HashEngine.isVectorApiAvailable(), "Only built with the vector profile.");
+        int[] prefix = Block.headerPrefixOf(1, 100, prevHash, Hash.DEFAULT_DIFFICULTY);
+        long nonce = block1.getNonce();
+        for (int lanes : new int[] {4, 8, 16}) {
+            MiningEngine vector = HashEngine.vector(lanes).newMiningEngine(prefix, Hash.DEFAULT_DIFFICULTY);
+            assertEquals(nonce, vector.search(Math.max(0, nonce - 1000), nonce + 1000),
+                    "The vector engine should find the same first valid nonce.");
+            assertEquals(-1, vector.search(nonce + 1, nonce + 1 + 4 * lanes),
+                    "The vector engine should not accept invalid nonces.");
+            assertEquals(block1.getHash(), vector.hashOf(nonce),
+                    "The vector engine should hash the same header.");
+        }
+    }
+
+    @Test
+    void testMiningEngineDoesNotAllocatePerAttempt() throws NoSuchAlgorithmException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MiningEngine engine = HashEngine.JCA.newMiningEngine(
+                Block.headerPrefixOf(1, 100, prevHash, Hash.DEFAULT_DIFFICULTY),
+                Hash.DEFAULT_DIFFICULTY);
+        engine.search(0, 100_000);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        engine.search(0, 100_000);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(allocated < 100_000,
+                "Mining should not allocate per attempt, allocated " + allocated + " bytes.");
+    }
+
+    @Test
+    void testDifficultyIsCheckedBitByBit() throws NoSuchAlgorithmException {
+        byte[] data = new byte[32];
+        data[9] = 0x10;
+        Hash hash = new Hash(data);
+
+        assertTrue(hash.isValid(75), "75 leading zero bits should pass.");
+        assertFalse(hash.isValid(76), "76 leading zero bits should fail.");
+        assertTrue(new Hash(new byte[32]).isValid(Hash.MAX_DIFFICULTY),
+                "An all-zero hash should meet every difficulty.");
+    }
+
+    @Test
+    void testChainEnforcesItsDifficulty() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 8);
+        Block blk = chain.mine(-10);
+
+        assertEquals(8, blk.getDifficulty(), "Mined blocks should record the chain difficulty.");
+        assertTrue(blk.getHash().isValid(8), "Mined block should meet the chain difficulty.");
+        chain.append(blk);
+        assertTrue(chain.isValidBlockChain(), "Chain should be valid.");
+
+        Block tooEasy = new Block(2, -10, chain.getHash(), HashEngine.JCA, 4);
+        assertThrows(IllegalArgumentException.class, () -> chain.append(tooEasy),
+                "A block mined below the chain difficulty should be rejected.");
+    }
+
+    @Test
+    void testHeaderCommitsToDifficulty() throws NoSuchAlgorithmException {
+        Block blk = new Block(1, 100, prevHash, HashEngine.JCA, 8);
+        Block relabelled = new Block(1, 100, prevHash, blk.getNonce(), HashEngine.JCA, 0);
+        assertNotEquals(blk.getHash(), relabelled.getHash(),
+                "Claiming another difficulty should change the hash.");
+
+        int[] transactions = {-5, 3};
+        Block batch = new Block(1, transactions, prevHash, HashEngine.JCA, 8);
+        Block relabelledBatch =
+                new Block(1, transactions, prevHash, batch.getNonce(), HashEngine.JCA, 0);
+        assertNotEquals(batch.getHash(), relabelledBatch.getHash(),
+                "Claiming another difficulty should change a batch block's hash.");
+    }
+
+    @Test
+    void testRetargetRaisesDifficultyForFastBlocks() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 1);
+        chain.setRetargetPolicy(new RetargetPolicy(2, 1_000_000_000L, 1, 10));
+
+        chain.append(chain.mine(-1));
+        assertEquals(1, chain.getDifficulty(), "Difficulty should hold within a window.");
+        chain.append(chain.mine(-1));
+        assertEquals(10, chain.getDifficulty(), "Fast blocks should raise the difficulty.");
+
+        Block blk = chain.mine(-1);
+        assertTrue(blk.getHash().isValid(10), "New blocks should be mined harder.");
+        chain.append(blk);
+        assertTrue(chain.isValidBlockChain(), "Chain should stay valid across retargets.");
+    }
+
+    @Test
+    void testRemoveLastShrinksChain() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(5000, 0);
+        for (int i = 1; i < 2100; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+        assertEquals(2100, chain.getSize(), "Chain should span several storage chunks.");
+
+        Hash tip = chain.getHash();
+        Block last = chain.getBlock(2099);
+        assertTrue(chain.removeLast(), "Removing from a long chain should succeed.");
+        assertEquals(2099, chain.getSize(), "Removing should shrink the chain.");
+        assertEquals(chain.getBlock(2098).getHash(), chain.getHash(),
+                "The previous block should be the new tip.");
+
+        chain.append(last);
+        assertEquals(tip, chain.getHash(), "The removed block should append again.");
+        assertTrue(chain.isValidBlockChain(), "Chain should be valid.");
+    }
+
+    @Test
+    void testGetBlockAndTail() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 0);
+        for (int i = 1; i < 5; i++) {
+            chain.append(chain.mine(-i));
+        }
+
+        assertEquals(0, chain.getBlock(0).getNum(), "Index 0 should be the first block.");
+        assertEquals(-3, chain.getBlock(3).getAmount(), "getBlock should index in chain order.");
+        assertThrows(IndexOutOfBoundsException.class, () -> chain.getBlock(5));
+
+        assertEquals(2, chain.tail(2).size(), "tail should return n blocks.");
+        assertEquals(3, chain.tail(2).get(0).getNum(), "tail should keep chain order.");
+        assertEquals(5, chain.tail(50).size(), "tail should stop at the first block.");
+    }
+
+    @Test
+    void testBalancesAndValidationFollowAppendAndRemove() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 0);
+        chain.append(chain.mine(-30));
+        assertEquals(70, chain.getAliceBalance(), "Alice should hold what she kept.");
+        assertEquals(30, chain.getBobBalance(), "Bob should hold what he received.");
+        assertTrue(chain.isValidBlockChain(), "Chain should be valid.");
+
+        chain.append(chain.mine(50));
+        assertFalse(chain.isValidBlockChain(), "Alice cannot end above her start.");
+        assertFalse(chain.isValidBlockChain(true), "A deep check should agree.");
+
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(70, chain.getAliceBalance(), "Removing should roll the balance back.");
+        assertTrue(chain.isValidBlockChain(), "Chain should be valid again.");
+
+        assertTrue(chain.removeLast(), "Removing below the checked blocks should succeed.");
+        chain.append(chain.mine(-120));
+        assertFalse(chain.isValidBlockChain(), "Alice cannot go below zero.");
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertTrue(chain.isValidBlockChain(true), "Chain should be valid from the start.");
+    }
+
+    @Test
+    void testVerifierRehashesEveryBlock() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(3000, 0);
+        for (int i = 1; i < 2500; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+        try (ChainVerifier verifier = new ChainVerifier(4)) {
+            assertEquals(ChainVerifier.VALID, verifier.findFirstInvalid(chain),
+                    "Chain should verify.");
+
+            Block honest = chain.mine(-1);
+            Block forged = new Block(2500, -1, chain.getHash(), honest.getNonce(),
+                    HashEngine.JCA, 0) {
+                @Override
+                public int getAmount() {
+                    return -2;
+                }
+            };
+            chain.append(forged);
+            chain.append(chain.mine(-1));
+            assertTrue(chain.isValidBlockChain(true),
+                    "Stored hashes alone cannot catch the forgery.");
+            assertEquals(2500, verifier.findFirstInvalid(chain),
+                    "The forged block should be found.");
+            assertFalse(verifier.isValid(chain), "The chain should not verify.");
+        }
+    }
+
+    @Test
+    void testBlockLogRestoresChain(@TempDir Path dir) throws NoSuchAlgorithmException, IOException {
+        Path file = dir.resolve("chain.log");
+        String expected;
+        try (BlockLog log = BlockLog.open(file, 2)) {
+            BlockChain chain = BlockChain.open(log, 100, 8, HashEngine.JCA);
+            for (int i = 1; i < 5; i++) {
+                chain.append(chain.mine(-i));
+            }
+            assertTrue(chain.removeLast(), "Removing should succeed.");
+            expected = chain.toString();
+        }
+        assertEquals(8 + 4 * BlockLog.RECORD_SIZE, Files.size(file), "Log should hold four records.");
+
+        try (BlockLog log = BlockLog.open(file, 2)) {
+            assertThrows(IOException.class, () -> BlockChain.open(log, 0, 9, HashEngine.JCA),
+                    "Records below the required difficulty should be rejected.");
+            BlockChain chain = BlockChain.open(log, 0, 8, HashEngine.JCA);
+            assertEquals(expected, chain.toString(), "The chain should come back unchanged.");
+            assertEquals(8, chain.getDifficulty(), "The difficulty should come from the log.");
+            assertEquals(8, chain.getMinDifficulty(), "The log cannot lower the minimum.");
+            assertEquals(94, chain.getAliceBalance(), "Balances should be rebuilt.");
+            assertTrue(chain.isValidBlockChain(), "Restored chain should be valid.");
+            chain.append(chain.mine(-4));
+        }
+
+        // A crash in the middle of writing the last record.
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+        Files.write(file, new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+        try (BlockLog log = BlockLog.open(file, 1)) {
+            assertEquals(4, log.size(), "The torn record should be discarded.");
+            assertEquals(expected, BlockChain.open(log, 0, 8, HashEngine.JCA).toString(),
+                    "The intact records should survive.");
+        }
+    }
+
+    @Test
+    void testBlockLogKeepsBatches(@TempDir Path dir) throws NoSuchAlgorithmException, IOException {
+        Path file = dir.resolve("chain.log");
+        String expected;
+        try (BlockLog log = BlockLog.open(file, 2)) {
+            BlockChain chain = BlockChain.open(log, 100, 8, HashEngine.JCA);
+            chain.setBatchSize(3);
+            for (int i = 1; i <= 3; i++) {
+                chain.submit(-i);
+            }
+            chain.append(chain.minePending());
+            expected = chain.toString();
+            chain.submit(-4);
+            chain.submit(-5);
+            chain.append(chain.minePending());
+            assertTrue(chain.removeLast(), "Removing a batch should succeed.");
+        }
+        assertEquals(3 * Integer.BYTES, Files.size(dir.resolve("chain.log.tx")),
+                "Only the kept batch's transactions should remain.");
+
+        try (BlockLog log = BlockLog.open(file, 2)) {
+            BlockChain chain = BlockChain.open(log, 0, 8, HashEngine.JCA);
+            assertEquals(expected, chain.toString(), "The chain should come back unchanged.");
+            assertArrayEquals(new int[] {-1, -2, -3}, chain.getBlock(1).getTransactions(),
+                    "The batch should keep its transactions.");
+            assertEquals(94, chain.getAliceBalance(), "Balances should be rebuilt.");
+            assertTrue(chain.isValidBlockChain(true), "Restored chain should be valid.");
+        }
+
+        // A crash before the batch's transactions reached the disk.
+        Files.write(dir.resolve("chain.log.tx"), new byte[2 * Integer.BYTES]);
+        try (BlockLog log = BlockLog.open(file, 1)) {
+            assertEquals(1, log.size(), "A batch with torn transactions should be discarded.");
+        }
+        assertEquals(0, Files.size(dir.resolve("chain.log.tx")),
+                "The torn transactions should be cut.");
+    }
+
+    @Test
+    void testHashIsAWordValue() {
+        byte[] data = new byte[32];
+        data[0] = 0x0a;
+        data[31] = (byte) 0xff;
+        Hash hash = new Hash(data);
+        data[0] = 0;
+
+        assertEquals(0x0a, hash.getData()[0], "A hash should copy its bytes.");
+        assertEquals("0a" + "00".repeat(30) + "ff", hash.toString(), "Hex should be zero padded.");
+        assertEquals(hash, new Hash(hash.getData()), "Equal bytes should make equal hashes.");
+        assertEquals(hash.hashCode(), new Hash(hash.getData()).hashCode(),
+                "Equal hashes should have equal hash codes.");
+        assertNotEquals(hash, new Hash(data), "Different bytes should make different hashes.");
+        assertEquals(4, hash.leadingZeros(), "0x0a has four leading zero bits.");
+    }
+
+    @Test
+    void testHeaderCommitsToWholePrevHash() throws NoSuchAlgorithmException {
+        byte[] data = prevHash.getData();
+        int[] single = Block.headerPrefixOf(1, 100, prevHash, Hash.DEFAULT_DIFFICULTY);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(prevHash.getWord(i),
+                    ((long) single[3 + 2 * i] << 32) | Integer.toUnsignedLong(single[4 + 2 * i]),
+                    "The header should carry every word of the previous hash.");
+        }
+        int[] batch = Block.headerPrefixOf(1, new int[] {1, -2, 3}, prevHash, 8);
+        assertEquals(11, batch.length, "A batch header should fit in one compression block.");
+
+        for (int i = 0; i < data.length; i++) {
+            byte[] changed = data.clone();
+            changed[i] ^= 1;
+            Hash other = new Hash(changed);
+            assertFalse(Arrays.equals(single,
+                    Block.headerPrefixOf(1, 100, other, Hash.DEFAULT_DIFFICULTY)),
+                    "Byte " + i + " of the previous hash should change the header.");
+            assertFalse(Arrays.equals(batch,
+                    Block.headerPrefixOf(1, new int[] {1, -2, 3}, other, 8)),
+                    "Byte " + i + " of the previous hash should change a batch header.");
+        }
+    }
+
+    @Test
+    void testFindByHash() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(5000, 0);
+        for (int i = 1; i < 3000; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+        for (int i = 0; i < 3000; i += 7) {
+            assertEquals(i, chain.indexOf(chain.getBlock(i).getHash()), "Every block should be found.");
+        }
+        Hash removed = chain.getHash();
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(-1, chain.indexOf(removed), "A removed block should not be found.");
+        assertNull(chain.findByHash(removed), "A removed block should not be found.");
+        assertEquals(chain.getBlock(1).getNum(), chain.findByHash(chain.getBlock(1).getHash()).getNum(),
+                "findByHash should return the block.");
+    }
+
+    @Test
+    void testHashIndexResolvesCollisions() {
+        // Hashes that share their key word so they fight over one probe run.
+        BlockStore store = new ChunkedBlockStore();
+        HashIndex index = new HashIndex();
+        for (int i = 0; i < 200; i++) {
+            Hash hash = new Hash(i, 0, 0, i % 3);
+            store.add(new Block(i, 0, null, 0, 0, hash));
+            index.add(hash, i);
+        }
+        for (int i = 199; i >= 100; i--) {
+            index.remove(store.get(i).getHash(), i);
+            store.removeLast();
+        }
+        assertEquals(100, index.size(), "Removed hashes should leave the index.");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, index.indexOf(new Hash(i, 0, 0, i % 3), store), "Survivors should be found.");
+        }
+        assertEquals(-1, index.indexOf(new Hash(150, 0, 0, 0), store), "Removed hashes should be gone.");
+    }
+
+    @Test
+    void testMerkleRootAndBatchBlock() throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[65];
+        Hash a = MerkleTree.leafHash(md, buffer, 5);
+        Hash b = MerkleTree.leafHash(md, buffer, -3);
+        Hash c = MerkleTree.leafHash(md, buffer, 7);
+        Hash ab = MerkleTree.nodeHash(md, buffer, a, b);
+        assertEquals(a, MerkleTree.root(new int[] {5}), "A lone leaf should be the root.");
+        assertEquals(
+                MerkleTree.nodeHash(md, buffer, ab, c),
+                MerkleTree.root(new int[] {5, -3, 7}),
+                "An odd last node should be carried up."
+        );
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.root(new int[0]));
+
+        BlockChain chain = new BlockChain(100, 8);
+        int[] transactions = {5, -3, 7};
+        Block blk = new Block(1, transactions, chain.getHash(), HashEngine.JCA, 8);
+        transactions[0] = 6;
+        assertTrue(blk.isBatch(), "The block should carry a batch.");
+        assertEquals(9, blk.getAmount(), "The amount should be the batch total.");
+        assertArrayEquals(new int[] {5, -3, 7}, blk.getTransactions(), "Batch should be copied.");
+        assertEquals(blk.getHash(), blk.computeHash(HashEngine.JCA), "Hash should recompute.");
+        assertEquals(
+                blk.getHash(),
+                new ParallelMiner(1).mine(1, new int[] {5, -3, 7}, chain.getHash(), 8).getHash(),
+                "A single worker should find the same block."
+        );
+
+        int[] prefix = blk.headerPrefix();
+        MiningEngine jca = HashEngine.JCA.newMiningEngine(prefix, Hash.DEFAULT_DIFFICULTY);
+        MiningEngine sha256 = HashEngine.SHA256.newMiningEngine(prefix, Hash.DEFAULT_DIFFICULTY);
+        for (long nonce : new long[] {0, 1, 1L << 32, -1, Long.MAX_VALUE}) {
+            assertEquals(jca.hashOf(nonce), sha256.hashOf(nonce),
+                    "Both engines should hash a batch header alike.");
+        }
+        Block minedBySha256 =
+                new Block(1, new int[] {5, -3, 7}, chain.getHash(), HashEngine.SHA256, 8);
+        assertEquals(blk.getHash(), minedBySha256.getHash(),
+                "Both engines should mine the same batch block.");
+        assertEquals(blk.getHash(), minedBySha256.computeHash(HashEngine.JCA),
+                "A batch mined by the kernel should verify with JCA.");
+        assertThrows(IllegalArgumentException.class, () -> HashEngine.SHA256.newMiningEngine(
+                new int[12], Hash.DEFAULT_DIFFICULTY), "A header without room to pad is refused.");
+    }
+
+    @Test
+    void testPendingPoolFillsBatches() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 4, HashEngine.JCA, new ColumnarBlockStore());
+        chain.setBatchSize(3);
+        for (int i = 1; i <= 7; i++) {
+            chain.submit(-i);
+        }
+        assertTrue(chain.isBatchReady(), "Seven transactions should fill a batch of three.");
+
+        Block blk = chain.minePending();
+        assertEquals(3, blk.getTransactionCount(), "The block should take a full batch.");
+        assertEquals(7, chain.getPendingCount(), "Transactions stay pending until appended.");
+        chain.append(blk);
+        assertEquals(4, chain.getPendingCount(), "Appending should clear the batch.");
+        chain.append(chain.minePending());
+        chain.append(chain.minePending());
+
+        assertEquals(0, chain.getPendingCount(), "Every transaction should be mined.");
+        assertFalse(chain.getBlock(3).isBatch(), "A lone transaction is an ordinary block.");
+        assertArrayEquals(new int[] {-4, -5, -6}, chain.getBlock(2).getTransactions());
+        assertEquals(72, chain.getAliceBalance(), "Every transaction should count.");
+        assertEquals(28, chain.getBobBalance(), "Every transaction should count.");
+        assertTrue(chain.isValidBlockChain(true), "The chain should be valid.");
+        try (ChainVerifier verifier = new ChainVerifier(2)) {
+            assertTrue(verifier.isValid(chain), "The chain should verify.");
+        }
+        assertThrows(IllegalStateException.class, chain::minePending);
+
+        chain.submit(-8);
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(2, chain.getPendingCount(), "A lone pooled transaction is re-queued.");
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(5, chain.getPendingCount(), "A removed batch should be pending again.");
+        blk = chain.minePending();
+        assertArrayEquals(new int[] {-4, -5, -6}, blk.getTransactions(),
+                "The removed batch should be mined again first.");
+        chain.mine(-9);
+        chain.append(blk);
+        assertEquals(2, chain.getPendingCount(),
+                "A batch should leave the pool even after mining something else.");
+
+        chain.append(chain.mine(-1));
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(2, chain.getPendingCount(), "A block from outside the pool is not re-queued.");
+        assertArrayEquals(new int[] {-7, -8}, chain.minePending().getTransactions(),
+                "The pool should keep its order.");
+    }
+
+    @Test
+    void testBatchBalanceIsCheckedPerTransaction() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(10, 0);
+        chain.setBatchSize(2);
+        chain.submit(-20);
+        chain.submit(15);
+        chain.append(chain.minePending());
+        assertEquals(5, chain.getAliceBalance(), "The net transfer should apply.");
+        assertFalse(chain.isValidBlockChain(), "Alice cannot go below zero midway.");
+        try (ChainVerifier verifier = new ChainVerifier(1)) {
+            assertEquals(1, verifier.findFirstInvalid(chain), "The batch is invalid.");
+        }
+    }
+
+    @Test
+    void testScriptRunnerRunsCommands() throws NoSuchAlgorithmException, IOException {
+        BlockChain chain = new BlockChain(100, 0);
+        StringWriter out = new StringWriter();
+        String script = """
+                # a comment, then a blank line
+
+                mine-append 50 -1
+                mine 2
+                append
+                remove 3
+                submit 4 -1
+                mine-pending
+                check
+                report
+                """;
+        new ScriptRunner(chain, new PrintWriter(out)).run(new BufferedReader(new StringReader(script)));
+
+        String output = out.toString();
+        assertEquals(53, chain.getSize(), "Blocks should be appended and removed.");
+        assertEquals(48, chain.getAliceBalance(), "Every amount should apply.");
+        assertTrue(output.contains("Chain is valid!"), "check should report.");
+        assertTrue(output.contains("Alice: 48, Bob: 52"), "report should report.");
+        assertTrue(output.contains("Ran 8 commands"), "A summary should follow.");
+        assertFalse(output.contains("Block: "), "The chain is printed only on request.");
+
+        ScriptRunner runner = new ScriptRunner(chain, new PrintWriter(new StringWriter()));
+        IllegalArgumentException e = assertThrows(
+                IllegalArgumentException.class,
+                () -> runner.run(new BufferedReader(new StringReader("check\nmine-append x 1\n")))
+        );
+        assertTrue(e.getMessage().startsWith("Line 2: "), "The failing line should be named.");
+    }
+
+    @Test
+    void testRendererMatchesToString() throws NoSuchAlgorithmException, IOException {
+        BlockChain chain = new BlockChain(100, 0, HashEngine.JCA, new ColumnarBlockStore());
+        chain.append(chain.mine(-100));
+        chain.append(chain.mine(Integer.MAX_VALUE));
+        chain.setBatchSize(3);
+        chain.submit(Integer.MIN_VALUE);
+        chain.submit(7);
+        chain.submit(0);
+        chain.append(chain.minePending());
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < chain.getSize(); i++) {
+            Block blk = chain.getBlock(i);
+            expected.append(String.format("Block: %d (%s)\n", blk.getNum(), blk.toString()));
+        }
+        assertEquals(expected.toString(), chain.toString(), "Rendering should keep the format.");
+
+        StringWriter out = new StringWriter();
+        ChainRenderer renderer = new ChainRenderer(out);
+        renderer.render(chain, 1, 3);
+        renderer.renderTail(chain, 1);
+        String[] lines = expected.toString().split("\n");
+        assertEquals(lines[1] + "\n" + lines[2] + "\n" + lines[3] + "\n", out.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> renderer.render(chain, 2, 5));
+    }
+
+    @Test
+    void testMetricsRecordChainOperations() throws Exception {
+        BlockChain chain = new BlockChain(100, 4);
+        ChainMetrics metrics = new ChainMetrics();
+        chain.setMetrics(metrics);
+        long attempts = 0;
+        for (int i = 1; i <= 5; i++) {
+            Block blk = chain.mine(-1);
+            attempts += blk.getNonce() + 1;
+            chain.append(blk);
+        }
+        assertTrue(chain.isValidBlockChain(true), "The chain should be valid.");
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+
+        assertEquals(5, metrics.getBlocksMined(), "Every mined block should count.");
+        assertEquals(attempts, metrics.getNonceAttempts(), "Attempts should add up.");
+        assertEquals(5, metrics.getChainSize(), "The size should follow the chain.");
+        assertEquals(5, metrics.getMiningLatency().getCount());
+        assertEquals(5, metrics.getAppendLatency().getCount());
+        assertEquals(1, metrics.getValidationLatency().getCount());
+        assertEquals(1, metrics.getRemoveLastLatency().getCount());
+        LatencySnapshot mining = metrics.getMiningLatency();
+        assertTrue(mining.getP50Nanos() <= mining.getP99Nanos(), "Percentiles should be ordered.");
+        assertTrue(mining.getP99Nanos() <= mining.getMaxNanos(), "Percentiles are capped.");
+
+        ObjectName name = metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(5L, server.getAttribute(name, "BlocksMined"), "JMX should read through.");
+            CompositeData latency = (CompositeData) server.getAttribute(name, "AppendLatency");
+            assertEquals(5L, latency.get("count"), "Latencies should be composite data.");
+        } finally {
+            ChainMetrics.unregister(name);
+        }
+        metrics.reset();
+        assertEquals(0, metrics.getBlocksMined(), "Reset should clear the counters.");
+
+        // Every nonce wins at difficulty 0, so each worker tries at most one,
+        // wherever in the nonce space its chunk lies.
+        BlockChain easy = new BlockChain(100, 0);
+        easy.setMetrics(metrics);
+        easy.setMiner(new ParallelMiner(4));
+        for (int i = 1; i <= 5; i++) {
+            easy.append(easy.mine(-1));
+        }
+        assertTrue(metrics.getNonceAttempts() >= 5, "Every winning nonce was tried.");
+        assertTrue(metrics.getNonceAttempts() <= 5 * 4, "Only nonces tried should count.");
+    }
+
+    @Test
+    void testMiningEmitsJfrEvents(@TempDir Path dir) throws Exception {
+        BlockChain chain = new BlockChain(100, 4);
+        Path file = dir.resolve("mining.jfr");
+        Block blk;
+        try (Recording recording = new Recording()) {
+            recording.enable(MiningEvent.class);
+            recording.start();
+            blk = chain.mine(-1);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(1, events.size(), "One block should be one event.");
+        RecordedEvent event = events.get(0);
+        assertEquals(1, event.getInt("num"));
+        assertEquals(blk.getNonce(), event.getLong("nonce"));
+        assertEquals(blk.getNonce() + 1, event.getLong("attempts"));
+    }
+
+    @Test
+    void testMineAsyncMatchesMine() throws Exception {
+        BlockChain chain = new BlockChain(100, 8);
+        Block blk = chain.mineAsync(-5).get(1, TimeUnit.MINUTES);
+        assertEquals(chain.mine(-5).getHash(), blk.getHash(), "Both should find the first nonce.");
+        chain.append(blk);
+        assertEquals(95, chain.getAliceBalance(), "The block should append.");
+        assertTrue(chain.isValidBlockChain(), "The chain should be valid.");
+
+        chain.setMiner(new ParallelMiner(2));
+        chain.append(chain.mineAsync(-5).get(1, TimeUnit.MINUTES));
+        assertEquals(90, chain.getAliceBalance(), "The parallel miner's block should append.");
+    }
+
+    @Test
+    void testMineAsyncCancelsAndTimesOut() throws Exception {
+        BlockChain chain = new BlockChain(100, 0);
+        chain.setRetargetPolicy(new RetargetPolicy(1, 1, 64, 64));
+        chain.append(chain.mine(-1));
+        assertEquals(64, chain.getDifficulty(), "The next block should be out of reach.");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AtomicLong attempts = new AtomicLong();
+            CompletableFuture<Block> cancelled = chain.mineAsync(
+                    -1, executor, null, (tried, hashRate) -> attempts.set(tried)
+            );
+            while (attempts.get() == 0) {
+                Thread.sleep(10);
+            }
+            assertTrue(cancelled.cancel(false), "Mining should still be running.");
+            assertTrue(attempts.get() > 0, "Progress should have been reported.");
+
+            CompletableFuture<Block> late = chain.mineAsync(
+                    -1, executor, Duration.ofMillis(200), null
+            );
+            ExecutionException e = assertThrows(ExecutionException.class, late::get);
+            assertInstanceOf(TimeoutException.class, e.getCause(), "The deadline should pass.");
+
+            chain.setMiner(new ParallelMiner(2));
+            attempts.set(0);
+            CompletableFuture<Block> parallel = chain.mineAsync(
+                    -1, executor, null, (tried, hashRate) -> attempts.set(tried)
+            );
+            while (attempts.get() == 0) {
+                Thread.sleep(10);
+            }
+            assertTrue(parallel.cancel(false), "The workers should still be running.");
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS), "The searches should stop.");
+        assertEquals(2, chain.getSize(), "Nothing should be appended.");
+    }
+
+    @Test
+    void testConcurrentChainRejectsStaleParents() throws NoSuchAlgorithmException {
+        ConcurrentBlockChain chain = new ConcurrentBlockChain(100, 4, HashEngine.JCA);
+        Block first = chain.mine(-10);
+        Block rival = chain.mine(-20);
+        assertTrue(chain.append(first), "The first block on the parent should win.");
+        assertFalse(chain.append(rival), "A rival on the same parent should lose.");
+        assertEquals(90, chain.getAliceBalance(), "Only the winner should count.");
+
+        Block overdraft = chain.mine(-95);
+        assertThrows(IllegalArgumentException.class, () -> chain.append(overdraft),
+                "An overdraft should be rejected.");
+        assertEquals(2, chain.getSize(), "The overdraft should not be added.");
+        assertEquals(90, chain.getAliceBalance(), "The balance should be untouched.");
+        assertTrue(chain.isValidBlockChain(), "The chain should stay valid.");
+        assertTrue(chain.append(chain.mine(-5)), "A covered transfer should append.");
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(first, chain.getBlock(1), "Blocks should be found by index.");
+        assertThrows(IllegalArgumentException.class, () -> chain.append(
+                new Block(2, 1, chain.getHash(), 0L, HashEngine.JCA, 4)
+        ));
+    }
+
+    @Test
+    void testConcurrentChainUnderCompetingMiners() throws Exception {
+        int miners = 4;
+        int target = 200;
+        ConcurrentBlockChain chain = new ConcurrentBlockChain(1_000_000, 4, HashEngine.JCA);
+        AtomicLong wins = new AtomicLong();
+        AtomicLong losses = new AtomicLong();
+        AtomicLong badSnapshots = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(miners + 1);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int m = 0; m < miners; m++) {
+                int amount = -(m + 1);
+                tasks.add(executor.submit(() -> {
+                    while (chain.getSize() < target) {
+                        if (chain.append(chain.mine(amount))) {
+                            wins.incrementAndGet();
+                        } else {
+                            losses.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            tasks.add(executor.submit(() -> {
+                while (chain.getSize() < target) {
+                    List<Block> blocks = chain.snapshot();
+                    int balance = 0;
+                    for (int i = 0; i < blocks.size(); i++) {
+                        Block blk = blocks.get(i);
+                        balance += blk.getAmount();
+                        if (blk.getNum() != i
+                                || (i > 0 && !blk.getPrevHash().equals(blocks.get(i - 1).getHash()))) {
+                            badSnapshots.incrementAndGet();
+                        }
+                    }
+                    if (balance > 1_000_000 || !chain.isValidBlockChain()) {
+                        badSnapshots.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+            for (Future<?> task : tasks) {
+                task.get(5, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Block> blocks = chain.snapshot();
+        int balance = 0;
+        for (Block blk : blocks) {
+            balance += blk.getAmount();
+        }
+        assertEquals(0, badSnapshots.get(), "Every snapshot should be a consistent chain.");
+        assertEquals(chain.getSize() - 1, wins.get(), "Every win should be one block.");
+        assertTrue(chain.getSize() >= target, "The miners should reach the target.");
+        assertEquals(balance, chain.getAliceBalance(), "The balance should match the blocks.");
+        assertTrue(chain.isValidBlockChain(), "The chain should be valid.");
+    }
+
+    @Test
+    void testMiningJobResumesFromCheckpoint(@TempDir Path dir) throws Exception {
+        BlockChain chain = new BlockChain(100, 12);
+        Block expected = chain.mine(-7);
+        long half = expected.getNonce() / 2;
+        Path checkpoint = dir.resolve("mining.ckpt");
+
+        MiningJob job = chain.newMiningJob(-7);
+        assertFalse(job.advance(HashEngine.JCA, half), "No nonce below the first should win.");
+        assertEquals(half, job.getFrontier(), "The frontier should move past the tried nonces.");
+        job.save(checkpoint);
+
+        MiningJob resumed = MiningJob.load(checkpoint);
+        assertEquals(half, resumed.getFrontier(), "The frontier should survive a restart.");
+        Block blk = resumed.run(HashEngine.JCA, checkpoint, 64);
+        assertEquals(expected.getHash(), blk.getHash(), "Resuming should find the same block.");
+        assertFalse(Files.exists(checkpoint), "A finished job removes its checkpoint.");
+        chain.append(blk);
+
+        MiningJob batch = new MiningJob(2, new int[] {-1, -2}, chain.getHash(), 4);
+        batch.save(checkpoint);
+        assertEquals(
+                new Block(2, new int[] {-1, -2}, chain.getHash(), HashEngine.JCA, 4).getHash(),
+                MiningJob.load(checkpoint).run(HashEngine.JCA, checkpoint, 1 << 20).getHash(),
+                "Batch jobs should resume too."
+        );
+
+        job.save(checkpoint);
+        try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1}), 20);
+        }
+        assertThrows(IOException.class, () -> MiningJob.load(checkpoint));
+    }
+
+    @Test
+    void testBlockTreeReorganizesToMostWork() throws NoSuchAlgorithmException {
+        BlockTree tree = new BlockTree(100, 4, HashEngine.JCA);
+        Block root = tree.getTip();
+        Block[] main = new Block[4];
+        Hash prev = root.getHash();
+        for (int i = 1; i <= 3; i++) {
+            main[i] = new Block(i, -i, prev, HashEngine.JCA, 4);
+            assertTrue(tree.add(main[i]), "Each block should be added.");
+            prev = main[i].getHash();
+        }
+        assertFalse(tree.add(main[3]), "A known block is not added twice.");
+        assertEquals(94, tree.getAliceBalance(), "The main chain should count.");
+
+        Block side = new Block(2, -50, main[1].getHash(), HashEngine.JCA, 4);
+        tree.add(side);
+        assertEquals(main[3], tree.getTip(), "A shorter branch should not win.");
+        Block sideTip = new Block(3, 10, side.getHash(), HashEngine.JCA, 5);
+        tree.add(sideTip);
+        assertEquals(sideTip, tree.getTip(), "More work should win.");
+        assertEquals(1, tree.getReorgCount(), "One reorganization should happen.");
+        assertEquals(2, tree.getLastReorgDepth(), "Two blocks should be undone.");
+        assertEquals(59, tree.getAliceBalance(), "Balances should follow the new branch.");
+        assertEquals(41, tree.getBobBalance(), "Balances should follow the new branch.");
+        assertFalse(tree.isCanonical(main[2].getHash()), "The old branch is no longer canonical.");
+        assertEquals(main[1], tree.commonAncestor(main[3].getHash(), sideTip.getHash()));
+        assertEquals(List.of(root, main[1], side, sideTip), tree.canonicalChain());
+
+        assertThrows(IllegalArgumentException.class, () -> tree.add(
+                new Block(5, 1, sideTip.getHash(), HashEngine.JCA, 4)
+        ));
+        Block overdraft = new Block(3, -98, main[2].getHash(), HashEngine.JCA, 8);
+        assertThrows(IllegalArgumentException.class, () -> tree.add(overdraft),
+                "A side branch cannot overdraw either.");
+        assertFalse(tree.contains(overdraft.getHash()), "The overdraft should not be kept.");
+        tree.add(new Block(3, -90, main[2].getHash(), HashEngine.JCA, 8));
+        assertEquals(7, tree.getAliceBalance(), "The branch's own balance should apply.");
+    }
+
+    @Test
+    void testBlockTreeAncestorsMatchWalks() throws NoSuchAlgorithmException {
+        Random random = new Random(7);
+        BlockTree tree = new BlockTree(Integer.MAX_VALUE, 0, HashEngine.JCA);
+        List<Block> blocks = new ArrayList<>(List.of(tree.getTip()));
+        for (int i = 1; i < 3000; i++) {
+            // Mostly extend recent blocks, so branches grow long.
+            int bound = Math.min(blocks.size(), 8);
+            Block parent = blocks.get(blocks.size() - 1 - random.nextInt(bound));
+            Block blk = new Block(parent.getNum() + 1, -i, parent.getHash(), HashEngine.JCA, 0);
+            tree.add(blk);
+            blocks.add(blk);
+        }
+        for (int q = 0; q < 500; q++) {
+            Block a = blocks.get(random.nextInt(blocks.size()));
+            Block b = blocks.get(random.nextInt(blocks.size()));
+            int height = random.nextInt(a.getNum() + 1);
+            assertEquals(walkBack(tree, a, a.getNum() - height), tree.ancestor(a.getHash(), height));
+
+            Block x = a;
+            Block y = b;
+            while (!x.equals(y)) {
+                if (x.getNum() >= y.getNum()) {
+                    x = walkBack(tree, x, 1);
+                } else {
+                    y = walkBack(tree, y, 1);
+                }
+            }
+            assertEquals(x, tree.commonAncestor(a.getHash(), b.getHash()));
+        }
+    }
+
+    private static Block walkBack(BlockTree tree, Block blk, int steps) {
+        for (int i = 0; i < steps; i++) {
+            blk = tree.ancestor(blk.getPrevHash(), blk.getNum() - 1);
+        }
+        return blk;
+    }
+
+    @Test
+    void testChainArchiveRoundTrip(@TempDir Path dir) throws NoSuchAlgorithmException, IOException {
+        BlockChain chain = new BlockChain(1000, 2, HashEngine.JCA);
+        for (int i = 1; i < 9000; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+        chain.setBatchSize(3);
+        for (int i = 0; i < 7; i++) {
+            chain.submit(-i);
+        }
+        while (chain.getPendingCount() > 0) {
+            chain.append(chain.minePending());
+        }
+        Path file = dir.resolve("chain.bin");
+        ChainArchive archive = new ChainArchive(3);
+        archive.export(chain, file);
+        // Header, 9001 single-amount records, two batches of 3 and the last
+        // transaction mined on its own.
+        assertEquals(12 + 9001 * 47 + 2 * (47 + 3 * 4), Files.size(file),
+                "Records should be compact.");
+
+        IOException weak = assertThrows(IOException.class,
+                () -> archive.importChain(file, 3, new ChunkedBlockStore()));
+        assertEquals("Block 0 is below difficulty 3", weak.getMessage(),
+                "Blocks below the required difficulty should be rejected.");
+        BlockChain copy = archive.importChain(file, 2, new ColumnarBlockStore());
+        assertEquals(chain.toString(), copy.toString(), "The chain should come back unchanged.");
+        assertEquals(chain.getAliceBalance(), copy.getAliceBalance(), "Balances should be rebuilt.");
+        assertEquals(2, copy.getDifficulty(), "The difficulty should come from the archive.");
+        assertEquals(2, copy.getMinDifficulty(), "The archive cannot lower the minimum.");
+        assertTrue(copy.getBlock(9001).isBatch(), "Batches should survive.");
+        assertTrue(copy.isValidBlockChain(), "Imported chain should be valid.");
+        copy.append(copy.mine(5));
+    }
+
+    @Test
+    void testChainArchiveRejectsDamage(@TempDir Path dir)
+            throws NoSuchAlgorithmException, IOException {
+        BlockChain chain = new BlockChain(100, 2, HashEngine.JCA);
+        for (int i = 1; i < 6000; i++) {
+            chain.append(chain.mine(0));
+        }
+        Path file = dir.resolve("chain.bin");
+        ChainArchive archive = new ChainArchive(2);
+        archive.export(chain, file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        // Flip a bit of block 5000's amount.
+        byte[] damaged = bytes.clone();
+        damaged[12 + 5000 * 47 + 46] ^= 1;
+        Files.write(file, damaged);
+        IOException e = assertThrows(IOException.class,
+                () -> archive.importChain(file, 2, new ChunkedBlockStore()));
+        assertEquals("Block 5000 does not verify", e.getMessage(), "Damage should be found.");
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 20));
+        assertThrows(IOException.class, () -> archive.importChain(file, 2, new ChunkedBlockStore()),
+                "A cut-off archive should be rejected.");
+        damaged = bytes.clone();
+        damaged[0] = 0;
+        Files.write(file, damaged);
+        assertThrows(IOException.class, () -> archive.importChain(file, 2, new ChunkedBlockStore()),
+                "Other files should be rejected.");
+    }
+
+    @Test
+    void testPruningStoreSpillsOldBlocks(@TempDir Path dir)
+            throws NoSuchAlgorithmException, IOException {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new PruningBlockStore(dir, 0, 50));
+        assertEquals("Must keep at least one recent block", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> new PruningBlockStore(dir, 1, -1));
+        assertEquals("Cache capacity cannot be negative", e.getMessage());
+
+        try (PruningBlockStore store = new PruningBlockStore(dir, 100, 50)) {
+            BlockChain pruned = new BlockChain(1000, 0, HashEngine.JCA, store);
+            pruned.setBatchSize(3);
+            for (int i = 1; i < 1000; i++) {
+                if (i % 10 == 0) {
+                    for (int j = 0; j < 3; j++) {
+                        pruned.submit(-1);
+                    }
+                    pruned.append(pruned.minePending());
+                } else {
+                    pruned.append(pruned.mine(i % 2 == 0 ? 1 : -1));
+                }
+            }
+            assertEquals(900, store.getSpilledCount(), "Only the recent blocks should be kept.");
+            List<Block> history = new ArrayList<>();
+            for (int i = 0; i < pruned.getSize(); i++) {
+                history.add(pruned.getBlock(i));
+            }
+            assertTrue(pruned.getBlock(10).isBatch(), "Spilled batches should come back.");
+            assertEquals(3, pruned.getBlock(10).getTransactionCount(), "With their transactions.");
+            long misses = store.getCacheMisses();
+            assertSame(pruned.getBlock(899), pruned.getBlock(899), "Cached blocks should be reused.");
+            assertEquals(misses, store.getCacheMisses(), "The cache should serve recent reads.");
+            assertEquals(500, pruned.indexOf(history.get(500).getHash()),
+                    "Spilled blocks should be found by hash.");
+
+            for (int i = 0; i < 150; i++) {
+                assertTrue(pruned.removeLast(), "Removing should succeed.");
+            }
+            assertEquals(850, store.getSpilledCount(), "Removal should reach the segments.");
+            for (int i = 0; i < 20; i++) {
+                pruned.append(pruned.mine(1));
+            }
+            for (int i = 0; i < 850; i++) {
+                assertEquals(history.get(i).getHash(), pruned.getBlock(i).getHash(),
+                        "Block " + i + " should be unchanged.");
+            }
+            assertEquals(870, pruned.getSize(), "Appends should follow removals.");
+            try (ChainVerifier verifier = new ChainVerifier(4)) {
+                assertEquals(ChainVerifier.VALID, verifier.findFirstInvalid(pruned),
+                        "A pruned chain should verify from its segments.");
+            }
+            assertTrue(pruned.isValidBlockChain(true), "The pruned chain should be valid.");
+        }
+    }
+
+    @Test
+    void testCheckpointsBoundDeepValidation(@TempDir Path dir)
+            throws NoSuchAlgorithmException, IOException {
+        try (PruningBlockStore store = new PruningBlockStore(dir, 100, 10)) {
+            BlockChain chain = new BlockChain(100, 0, HashEngine.JCA, store);
+            chain.setCheckpointInterval(100);
+            for (int i = 1; i < 1000; i++) {
+                chain.append(chain.mine(0));
+            }
+            assertTrue(chain.isValidBlockChain(true), "The chain should be valid.");
+            assertEquals(1000, chain.getCheckpointSize(), "Validation should take checkpoints.");
+
+            for (int i = 0; i < 30; i++) {
+                chain.append(chain.mine(0));
+            }
+            long misses = store.getCacheMisses();
+            assertTrue(chain.isValidFromCheckpoint(), "The chain should still be valid.");
+            assertEquals(misses, store.getCacheMisses(),
+                    "A checkpointed check should not read spilled blocks.");
+            assertTrue(chain.isValidBlockChain(true), "The chain should still be valid.");
+            assertTrue(store.getCacheMisses() > misses,
+                    "A deep check should walk from the first block.");
+
+            for (int i = 0; i < 50; i++) {
+                chain.removeLast();
+            }
+            assertEquals(900, chain.getCheckpointSize(), "Removed checkpoints should be dropped.");
+            assertTrue(chain.isValidFromCheckpoint(), "The chain should stay valid.");
+            chain.printBalances();
+            assertEquals(0, chain.getBobBalance(), "Balances should not need block 0.");
+
+            chain.setCheckpointInterval(0);
+            assertEquals(0, chain.getCheckpointSize(), "Checkpoints should be dropped.");
+        }
+    }
+
+    @Test
+    void testBalanceMapMatchesHashMap() {
+        BalanceMap map = new BalanceMap();
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(24);
+        BalanceMap snapshot = null;
+        Map<Integer, Long> atSnapshot = null;
+        for (int i = 0; i < 200000; i++) {
+            int account = random.nextInt(5000);
+            long delta = random.nextInt(3) == 0 ? -expected.getOrDefault(account, 0L)
+                    : random.nextInt(201) - 100;
+            map.add(account, delta);
+            expected.merge(account, delta, Long::sum);
+            expected.remove(account, 0L);
+            if (i % 50000 == 0) {
+                snapshot = map.snapshot();
+                atSnapshot = new HashMap<>(expected);
+            }
+        }
+        assertEquals(expected.size(), map.size(), "Only non-zero balances should be kept.");
+        for (int account = 0; account < 5000; account++) {
+            assertEquals(expected.getOrDefault(account, 0L), map.get(account),
+                    "Balance of " + account);
+            assertEquals(atSnapshot.getOrDefault(account, 0L), snapshot.get(account),
+                    "Snapshot balance of " + account);
+        }
+        assertEquals(atSnapshot.size(), snapshot.accounts().length,
+                "The snapshot should keep its accounts.");
+        assertTrue(map.capacity() * 12L < 32L * map.size(), "Accounts should stay under 32 bytes.");
+    }
+
+    @Test
+    void testAccountChainMovesBalances() throws NoSuchAlgorithmException {
+        AccountChain chain = new AccountChain(1_000_000, 0, HashEngine.JCA);
+        for (int account = 1; account <= 5000; account++) {
+            chain.submit(0, account, 100);
+        }
+        while (chain.getPendingCount() > 0) {
+            chain.append(chain.minePending());
+        }
+        assertEquals(6, chain.getSize(), "Transfers should fill blocks of 1024.");
+        assertEquals(5001, chain.getAccountCount(), "Every account should hold a balance.");
+        assertEquals(500_000, chain.getBalance(0), "The sender should be debited.");
+        assertEquals(0, chain.getBlock(1).getAmount(), "Account blocks should total zero.");
+        BalanceMap funded = chain.snapshot();
+
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            int sender = 1 + random.nextInt(5000);
+            int receiver = 1 + (sender + random.nextInt(4999)) % 5000;
+            chain.submit(sender, receiver, 1 + random.nextInt(10));
+        }
+        while (chain.getPendingCount() > 0) {
+            chain.append(chain.minePending());
+        }
+        long total = 0;
+        for (int account : chain.snapshot().accounts()) {
+            total += chain.getBalance(account);
+        }
+        assertEquals(1_000_000, total, "Transfers should move money, not make it.");
+        assertEquals(100, funded.get(1), "Snapshots should not follow the chain.");
+        assertTrue(chain.isValidBlockChain(), "The replayed chain should match.");
+
+        chain.submit(1, 2, 1_000);
+        Block overdraft = chain.minePending();
+        long before = chain.getBalance(2);
+        assertThrows(IllegalArgumentException.class, () -> chain.append(overdraft),
+                "An uncovered transfer should be rejected.");
+        assertEquals(before, chain.getBalance(2), "A rejected block should move nothing.");
+        assertThrows(IllegalArgumentException.class, () -> chain.submit(3, 3, 1),
+                "Transfers to oneself should be rejected.");
+
+        while (chain.removeLast()) {
+            if (chain.getSize() == 6) {
+                for (int account = 0; account <= 5000; account++) {
+                    assertEquals(funded.get(account), chain.getBalance(account),
+                            "Undoing should restore account " + account);
+                }
+            }
+        }
+        assertEquals(1, chain.getAccountCount(), "Only the first account should be left.");
+        assertEquals(1_000_000, chain.getBalance(0), "The initial amount should be back.");
+
+        assertEquals(8001, chain.getPendingCount(), "Removed transfers should be pending again.");
+        Block again = chain.minePending();
+        assertArrayEquals(new int[] {0, 1, 100, -101}, Arrays.copyOf(again.getTransactions(), 4),
+                "The oldest transfers should be mined again first.");
+        chain.minePending();
+        chain.append(again);
+        assertEquals(8001 - AccountChain.MAX_TRANSFERS_PER_BLOCK, chain.getPendingCount(),
+                "Appending should drain the pool even after mining something else.");
+    }
+
+    @Test
+    void testMountainRangeMatchesRebuild() throws NoSuchAlgorithmException {
+        MerkleMountainRange range = new MerkleMountainRange();
+        List<Hash> leaves = new ArrayList<>();
+        Random random = new Random(25);
+        for (int step = 0; step < 600; step++) {
+            if (!leaves.isEmpty() && random.nextInt(4) == 0) {
+                range.removeLast();
+                leaves.remove(leaves.size() - 1);
+            } else {
+                Hash leaf = new Hash(random.nextLong(), random.nextLong(), step, 0);
+                range.append(leaf);
+                leaves.add(leaf);
+            }
+            if (leaves.isEmpty()) {
+                continue;
+            }
+            MerkleMountainRange rebuilt = new MerkleMountainRange();
+            for (Hash leaf : leaves) {
+                rebuilt.append(leaf);
+            }
+            Hash root = range.root();
+            assertEquals(rebuilt.root(), root, "Removal should undo appends exactly.");
+            int index = random.nextInt(leaves.size());
+            InclusionProof proof = range.prove(index);
+            assertTrue(MerkleMountainRange.verify(root, leaves.get(index), proof),
+                    "Leaf " + index + " of " + leaves.size() + " should verify.");
+            assertTrue(proof.size() <= 2 * 32, "Proofs should be logarithmic.");
+            Hash other = leaves.get((index + 1) % leaves.size());
+            assertEquals(leaves.size() == 1, MerkleMountainRange.verify(root, other, proof),
+                    "Another leaf should not verify.");
+        }
+    }
+
+    @Test
+    void testInclusionProofsOfChain() throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain(100, 4, HashEngine.JCA);
+        for (int i = 1; i < 300; i++) {
+            chain.append(chain.mine(i % 2 == 0 ? 1 : -1));
+        }
+        Hash root = chain.getAccumulatorRoot();
+        for (int index : new int[] {0, 1, 137, 255, 256, 299}) {
+            InclusionProof proof = chain.proveInclusion(index);
+            assertTrue(BlockChain.verifyInclusion(root, chain.getBlock(index), proof),
+                    "Block " + index + " should be proven.");
+            assertFalse(BlockChain.verifyInclusion(root, chain.getBlock((index + 1) % 300), proof),
+                    "The proof should not fit another block.");
+            byte[] bytes = proof.toBytes();
+            InclusionProof decoded = InclusionProof.fromBytes(bytes);
+            assertEquals(index, decoded.getIndex(), "The index should survive encoding.");
+            assertEquals(proof.size(), decoded.size(), "Every hash should survive encoding.");
+            assertArrayEquals(bytes, decoded.toBytes(), "Encoding should round-trip.");
+            assertTrue(BlockChain.verifyInclusion(root, chain.getBlock(index), decoded),
+                    "A decoded proof should still prove block " + index + ".");
+            assertThrows(IllegalArgumentException.class,
+                    () -> InclusionProof.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)),
+                    "A truncated proof should be rejected.");
+        }
+        Block forged = new Block(137, 50, chain.getBlock(136).getHash(),
+                chain.getBlock(137).getNonce(), 4, chain.getBlock(137).getHash());
+        assertFalse(BlockChain.verifyInclusion(root, forged, chain.proveInclusion(137)),
+                "A block whose contents do not match its hash should fail.");
+
+        InclusionProof old = chain.proveInclusion(10);
+        chain.append(chain.mine(1));
+        assertFalse(BlockChain.verifyInclusion(chain.getAccumulatorRoot(), chain.getBlock(10), old),
+                "A proof should only fit the root it was made for.");
+        assertTrue(chain.removeLast(), "Removing should succeed.");
+        assertEquals(root, chain.getAccumulatorRoot(), "Removal should restore the root.");
+        assertTrue(BlockChain.verifyInclusion(root, chain.getBlock(10), old),
+                "The old proof should fit again.");
+    }
+
+    @Test
+    void testColumnarStoreMatchesObjectStore() throws NoSuchAlgorithmException {
+        BlockChain objects = new BlockChain(100, 0);
+        BlockChain heap = new BlockChain(100, 0, HashEngine.JCA, new ColumnarBlockStore(false));
+        BlockChain direct = new BlockChain(100, 0, HashEngine.JCA, new ColumnarBlockStore(true));
+        for (int i = 1; i < 6; i++) {
+            Block blk = objects.mine(-i);
+            objects.append(blk);
+            heap.append(blk);
+            direct.append(blk);
+        }
+
+        for (BlockChain columns : new BlockChain[] {heap, direct}) {
+            for (int i = 0; i < objects.getSize(); i++) {
+                Block expected = objects.getBlock(i);
+                Block actual = columns.getBlock(i);
+                assertEquals(expected.getNum(), actual.getNum(), "Numbers should match.");
+                assertEquals(expected.getAmount(), actual.getAmount(), "Amounts should match.");
+                assertEquals(expected.getNonce(), actual.getNonce(), "Nonces should match.");
+                assertEquals(expected.getHash(), actual.getHash(), "Hashes should match.");
+            }
+            assertNull(columns.getBlock(0).getPrevHash(), "Genesis should have no previous hash.");
+            assertTrue(columns.isValidBlockChain(), "Columnar chain should be valid.");
+            assertEquals(objects.toString(), columns.toString(), "Chains should print the same.");
+            Block removed = columns.getBlock(5);
+            assertTrue(columns.removeLast(), "Removing should succeed.");
+            assertEquals(objects.getBlock(4).getHash(), columns.getHash(),
+                    "The previous block should be the new tip.");
+            assertThrows(IndexOutOfBoundsException.class, removed::getNum);
+            assertThrows(IndexOutOfBoundsException.class, removed::getNonce);
+            assertThrows(IndexOutOfBoundsException.class, removed::getAmount);
+            assertThrows(IndexOutOfBoundsException.class, removed::getPrevHash);
+            assertThrows(IndexOutOfBoundsException.class, removed::getHash);
+
+            Block kept = columns.getBlock(4);
+            columns.append(objects.getBlock(5));
+            assertThrows(IllegalStateException.class, removed::getNum);
+            assertThrows(IllegalStateException.class, removed::getAmount);
+            assertThrows(IllegalStateException.class, removed::getHash);
+            assertEquals(objects.getBlock(4).getHash(), kept.getHash(),
+                    "A view of a kept block should still read it.");
+            assertEquals(objects.getBlock(5).getHash(), columns.getBlock(5).getHash(),
+                    "A fresh view should read the new block.");
+        }
+    }
+
     @Test
     void testGetters() {
         assertEquals(1, block1.getNum(), "Block number getter should return correct value.");